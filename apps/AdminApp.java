@@ -1,19 +1,46 @@
 package apps;
 
+import database.ConnectionPool;
+import database.QueryLog;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 public class AdminApp {
 
+    // Rows fetched per round trip unless changed with \fetch
+    static final int FETCH_SIZE = 1000;
+
+    // Lines shown by \slow and \top without a count
+    static final int REPORT_SIZE = 10;
+
     private Scanner in;
+    private ConnectionPool pool;
     private Connection conn;
 
+    // Results are streamed through one buffered writer and flushed once per statement
+    private final BufferedWriter out =
+        new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+
+    private int fetchSize = FETCH_SIZE;
+    private int rowLimit = 0;
+
     private AdminApp(String location, String user, String password){
-        String url = "jdbc:h2:" + location;
+        this.pool = new ConnectionPool(location, user, password, 1);
 
         try {
-            this.conn = DriverManager.getConnection(url, user, password);
-            System.out.println("Connected: " + url + ";IFEXISTS=TRUE");
+            this.conn = pool.borrow();
+
+            // Rows are produced as they are read instead of being collected first
+            try(Statement stmt = conn.createStatement()){
+                stmt.execute("SET LAZY_QUERY_EXECUTION TRUE;");
+            }
+
+            System.out.println("Connected: " + pool.getUrl() + ";IFEXISTS=TRUE");
         }
         catch (SQLException e) {
             e.printStackTrace();
@@ -28,54 +55,211 @@ public class AdminApp {
      * Used on program exit, closes the database.
      */
     private void closeConnection(){
-        try {
-            conn.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        pool.release(conn);
+        pool.close();
     }
 
     private void runApplication(){
 
         System.out.println("|Access the Retail Database through this application. |");
-        System.out.println("|Accepted commands are EXIT and SQL queries.          |");
+        System.out.println("|Accepted commands are EXIT and SQL statements.       |");
+        System.out.println("|\\fetch <n> sets the fetch size, \\limit <n> the rows  |");
+        System.out.println("|printed per query, 0 for all.                        |");
+        System.out.println("|\\explain <sql> shows the plan, \\profile <sql> runs   |");
+        System.out.println("|it and shows the rows scanned per table.             |");
+        System.out.println("|\\slow [n] lists the last slow statements of the apps,|");
+        System.out.println("|\\top [n] the statements with the most total time.    |");
         while(true) {
             System.out.print(">> ");
-            String input = in.nextLine();
+            String input = in.nextLine().trim();
 
             if(input.isEmpty()) System.out.print("");
 
             else if(input.equalsIgnoreCase("EXIT")){
                 exitProgram();
             }
+            else if(input.startsWith("\\")){
+                runCommand(input);
+            }
             else {
-                try{
-                    PreparedStatement stmt = conn.prepareStatement(input);
-                    ResultSet res = stmt.executeQuery();
-                    ResultSetMetaData metaData = res.getMetaData();
-                    int columnCount = metaData.getColumnCount();
-                    if (res.next()){
-                        System.out.println("|Query Success                                        |");
-                        if(input.substring(0,6).equalsIgnoreCase("SELECT")){
-
-                            for (int i = 1; i <= columnCount ; i++){
-                                String col_name = metaData.getColumnName(i);
-                                System.out.print(col_name + "|");
-                            }
-                            while(res.next()){
-                                System.out.printf("%n");
-                                for(int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
-                                    System.out.print(res.getString(columnIndex) + "|");
-                                }
-                            }
-                            System.out.print("\n");
-
-                        }
-                    }
-                } catch(SQLException e) {
-                    System.out.println(e.getMessage());
+                execute(input);
+            }
+        }
+    }
+
+    /**
+     * Runs a console command.
+     *
+     * @param input The command line, starting with a backslash
+     */
+    private void runCommand(String input){
+        String[] args = input.split("\\s+", 2);
+        String rest = args.length > 1 ? args[1] : "";
+
+        try{
+            switch(args[0]){
+                case "\\fetch": {
+                    fetchSize = Math.max(1, Integer.parseInt(rest));
+                    System.out.println("Fetch size: " + fetchSize);
+                    break;
+                }
+                case "\\limit": {
+                    rowLimit = Math.max(0, Integer.parseInt(rest));
+                    System.out.println("Row limit: " + (rowLimit == 0 ? "none" : rowLimit));
+                    break;
+                }
+                case "\\explain": {
+                    if(rest.isEmpty()) System.out.println("Usage: \\explain <sql>");
+                    else execute("EXPLAIN " + rest);
+                    break;
+                }
+                case "\\profile": {
+                    // EXPLAIN ANALYZE runs the statement, updates included
+                    if(rest.isEmpty()) System.out.println("Usage: \\profile <sql>");
+                    else execute("EXPLAIN ANALYZE " + rest);
+                    break;
+                }
+                case "\\slow": {
+                    printSlow(rest.isEmpty() ? REPORT_SIZE : Integer.parseInt(rest));
+                    break;
+                }
+                case "\\top": {
+                    printTop(rest.isEmpty() ? REPORT_SIZE : Integer.parseInt(rest));
+                    break;
+                }
+                default: {
+                    System.out.println("Unknown command " + args[0]);
+                }
+            }
+        } catch(NumberFormatException e){
+            System.out.println("Usage: " + args[0] + " <n>");
+        }
+    }
+
+    /**
+     * Prints the last slow statements recorded in the query log.
+     *
+     * @param n Number of statements
+     */
+    private void printSlow(int n){
+        try{
+            List<String> lines = QueryLog.slow(pool.getQueryLog().getFile(), Math.max(1, n));
+
+            write("TIME|MS|ROWS|CALL_SITE|SQL|\n");
+            for(String line : lines){
+                write(line.substring(line.indexOf('\t') + 1).replace('\t', '|') + "|\n");
+            }
+            write(String.format("|Query Success| %d slow statements over %dms\n", lines.size(), QueryLog.SLOW_MS));
+        } catch(IOException e){
+            write(e.getMessage() + "\n");
+        }
+
+        flush();
+    }
+
+    /**
+     * Prints the statements with the most total time over the runs in the query log.
+     *
+     * @param n Number of statements
+     */
+    private void printTop(int n){
+        try{
+            List<String[]> rows = QueryLog.top(pool.getQueryLog().getFile(), Math.max(1, n));
+
+            write("COUNT|TOTAL_MS|MAX_MS|ROWS|CALL_SITE|SQL|\n");
+            for(String[] row : rows){
+                write(String.join("|", row) + "|\n");
+            }
+            write(String.format("|Query Success| %d statements\n", rows.size()));
+        } catch(IOException e){
+            write(e.getMessage() + "\n");
+        }
+
+        flush();
+    }
+
+    /**
+     * Executes any statement. Result sets are streamed to the console row by
+     * row, other statements report their update count, both with the time taken.
+     *
+     * Ad hoc statements run on a plain Statement, so they stay out of the pooled
+     * connection's statement cache.
+     *
+     * @param sql The statement
+     */
+    private void execute(String sql){
+        long start = System.nanoTime();
+
+        try(Statement stmt = conn.createStatement()){
+            stmt.setFetchSize(fetchSize);
+            stmt.setMaxRows(rowLimit);
+
+            if(stmt.execute(sql)){
+                long rows;
+                try(ResultSet res = stmt.getResultSet()){
+                    rows = printResult(res);
                 }
+
+                double seconds = (System.nanoTime() - start) / 1e9;
+                out.write(String.format("|Query Success| %d rows in %.3fs, %.0f rows/s%s\n", rows, seconds,
+                                        rows / seconds, rowLimit > 0 && rows == rowLimit ? ", limit reached" : ""));
+            }
+            else {
+                int count = stmt.getUpdateCount();
+                out.write(String.format("|Statement Success| %d rows affected in %.3fs\n", Math.max(count, 0),
+                                        (System.nanoTime() - start) / 1e9));
+            }
+        } catch(SQLException e) {
+            write(e.getMessage() + "\n");
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes a result set as a header of column names followed by one line per
+     * row, every value followed by a bar.
+     *
+     * @return Number of rows written
+     */
+    private long printResult(ResultSet res) throws SQLException, IOException {
+        ResultSetMetaData metaData = res.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        for (int i = 1; i <= columnCount ; i++){
+            out.write(metaData.getColumnLabel(i));
+            out.write('|');
+        }
+        out.write('\n');
+
+        long rows = 0;
+        while(res.next()){
+            for(int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
+                out.write(String.valueOf(res.getString(columnIndex)));
+                out.write('|');
             }
+            out.write('\n');
+            rows++;
+        }
+
+        return rows;
+    }
+
+    private void write(String s){
+        try{
+            out.write(s);
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void flush(){
+        try{
+            out.flush();
+        } catch(IOException e){
+            e.printStackTrace();
         }
     }
 
@@ -0,0 +1,231 @@
+package apps;
+
+import java.util.Arrays;
+
+/**
+ * The lines of one checkout. Each line is a product held as its UPC14 packed
+ * into a long, with its quantity, the quantity first asked for, its unit price
+ * in cents and its outcome once entered, all in parallel primitive arrays in the
+ * order the products were added. An open addressing table of line numbers finds
+ * a product's line, so adding a scan neither allocates nor boxes.
+ *
+ * Totals are summed in cents as longs, so they are exact.
+ */
+public class Basket {
+
+    /**
+     * Quantity of a line whose product the store does not carry.
+     */
+    public static final int NOT_FOUND = -1;
+
+    // Lines
+    private long[] upc = new long[16];
+    private int[] qty = new int[16];
+    private int[] requested = new int[16];
+    private int[] cents = new int[16];
+    private CounterPoint.LineStatus[] status = new CounterPoint.LineStatus[16];
+    private int size;
+
+    // Line number + 1 by product, 0 marks a free slot
+    private int[] slots = new int[32];
+
+    /**
+     * @return Number of lines
+     */
+    public int size(){
+        return size;
+    }
+
+    public long upc(int line){
+        return upc[line];
+    }
+
+    public int quantity(int line){
+        return qty[line];
+    }
+
+    public void setQuantity(int line, int quantity){
+        qty[line] = quantity;
+    }
+
+    public int requested(int line){
+        return requested[line];
+    }
+
+    public int priceCents(int line){
+        return cents[line];
+    }
+
+    public void setPriceCents(int line, int priceCents){
+        cents[line] = priceCents;
+    }
+
+    /**
+     * @return The outcome of an entered line, null before the basket is entered
+     */
+    public CounterPoint.LineStatus status(int line){
+        return status[line];
+    }
+
+    public void setStatus(int line, CounterPoint.LineStatus lineStatus){
+        status[line] = lineStatus;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return The product's line, -1 if it is not in the basket
+     */
+    public int indexOf(long key){
+        int mask = slots.length - 1;
+
+        for(int i = hash(key) & mask; slots[i] != 0; i = (i + 1) & mask){
+            if(upc[slots[i] - 1] == key) return slots[i] - 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds to the quantity of a product, adding a line for it if it is new.
+     *
+     * @param key The packed UPC14
+     * @param quantity Amount added
+     * @return The product's line
+     */
+    public int add(long key, int quantity){
+        int line = indexOf(key);
+        if(line >= 0){
+            qty[line] = Math.max(qty[line], 0) + quantity;
+            return line;
+        }
+
+        if(size == upc.length) grow();
+
+        line = size++;
+        upc[line] = key;
+        qty[line] = quantity;
+        requested[line] = quantity;
+        cents[line] = 0;
+        status[line] = null;
+        index(line);
+
+        return line;
+    }
+
+    /**
+     * Takes an amount off a product, dropping its line if nothing would be left.
+     *
+     * @param key The packed UPC14
+     * @param quantity Amount removed, -1 for the whole line
+     * @return False if the product is not in the basket
+     */
+    public boolean remove(long key, int quantity){
+        int line = indexOf(key);
+        if(line < 0) return false;
+
+        if(quantity == -1 || qty[line] - quantity < 0){
+            // The last line takes the dropped line's place
+            int last = --size;
+            upc[line] = upc[last];
+            qty[line] = qty[last];
+            requested[line] = requested[last];
+            cents[line] = cents[last];
+            status[line] = status[last];
+            status[last] = null;
+            reindex();
+        } else {
+            qty[line] -= quantity;
+        }
+
+        return true;
+    }
+
+    /**
+     * Orders the lines by UPC14.
+     */
+    public void sort(){
+        Integer[] order = new Integer[size];
+        for(int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(upc[a], upc[b]));
+
+        long[] u = upc.clone();
+        int[] q = qty.clone();
+        int[] r = requested.clone();
+        int[] c = cents.clone();
+        CounterPoint.LineStatus[] s = status.clone();
+
+        for(int i = 0; i < size; i++){
+            int from = order[i];
+            upc[i] = u[from];
+            qty[i] = q[from];
+            requested[i] = r[from];
+            cents[i] = c[from];
+            status[i] = s[from];
+        }
+
+        reindex();
+    }
+
+    /**
+     * Starts a new entry of the basket: every quantity still held becomes the
+     * quantity asked for and the outcomes are cleared.
+     */
+    public void resetRequested(){
+        for(int i = 0; i < size; i++){
+            if(qty[i] != NOT_FOUND) requested[i] = qty[i];
+            status[i] = null;
+        }
+    }
+
+    /**
+     * @return Sum of price * quantity in cents over the lines with a quantity
+     */
+    public long totalCents(){
+        long total = 0;
+
+        for(int i = 0; i < size; i++){
+            if(qty[i] > 0) total += (long) qty[i] * cents[i];
+        }
+
+        return total;
+    }
+
+    /**
+     * @param cents An amount in cents
+     * @return The amount in dollars with two decimals
+     */
+    public static String format(long cents){
+        long abs = Math.abs(cents);
+        return (cents < 0 ? "-" : "") + abs / 100 + "." + (abs % 100 < 10 ? "0" : "") + abs % 100;
+    }
+
+    private void grow(){
+        int capacity = upc.length * 2;
+
+        upc = Arrays.copyOf(upc, capacity);
+        qty = Arrays.copyOf(qty, capacity);
+        requested = Arrays.copyOf(requested, capacity);
+        cents = Arrays.copyOf(cents, capacity);
+        status = Arrays.copyOf(status, capacity);
+        slots = new int[capacity * 2];
+
+        reindex();
+    }
+
+    private void reindex(){
+        Arrays.fill(slots, 0);
+        for(int i = 0; i < size; i++) index(i);
+    }
+
+    private void index(int line){
+        int mask = slots.length - 1;
+        int i = hash(upc[line]) & mask;
+
+        while(slots[i] != 0) i = (i + 1) & mask;
+        slots[i] = line + 1;
+    }
+
+    private static int hash(long key){
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+}
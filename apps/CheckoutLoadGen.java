@@ -0,0 +1,229 @@
+package apps;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the checkout server. Replays baskets over a growing number of
+ * concurrent lanes and reports transactions per second for each lane count.
+ *
+ * Baskets are replayed from the recorded transactions in data/transaction.csv and
+ * data/prod_transaction.csv, or generated from data/prod_store.csv in synthetic mode.
+ */
+public class CheckoutLoadGen {
+
+    /**
+     * A single basket to be replayed: the store, customer and its lines.
+     */
+    static class Basket {
+        final String storeID;
+        final String customerID;
+        final List<String[]> lines = new ArrayList<String[]>();
+
+        Basket(String storeID, String customerID){
+            this.storeID = storeID;
+            this.customerID = customerID;
+        }
+    }
+
+    private final int port;
+    private final List<Basket> baskets;
+
+    public CheckoutLoadGen(int port, List<Basket> baskets){
+        this.port = port;
+        this.baskets = baskets;
+    }
+
+    /**
+     * Reads the recorded baskets, each transaction becomes one basket.
+     *
+     * @param transPath Path to the transaction csv
+     * @param prodTransPath Path to the product transaction csv
+     * @return The recorded baskets in file order
+     */
+    static List<Basket> recordedBaskets(String transPath, String prodTransPath) throws IOException {
+        Map<Long, Basket> byID = new LinkedHashMap<Long, Basket>();
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(transPath))){
+            reader.readLine(); // Header
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] vals = line.split(",");
+                byID.put(Long.parseLong(vals[0].trim()),
+                         new Basket(String.valueOf(Integer.parseInt(vals[2].trim())),
+                                    String.valueOf(Integer.parseInt(vals[3].trim()))));
+            }
+        }
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(prodTransPath))){
+            reader.readLine(); // Header
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] vals = line.split(",");
+                Basket basket = byID.get(Long.parseLong(vals[0].trim()));
+                if(basket != null) basket.lines.add(new String[]{vals[1].trim(), vals[2].trim()});
+            }
+        }
+
+        return new ArrayList<Basket>(byID.values());
+    }
+
+    /**
+     * Generates random baskets out of a store's assortment.
+     *
+     * @param prodStorePath Path to the product store csv
+     * @param storeID Store the baskets are rung up at
+     * @param customerID Customer the baskets are rung up for
+     * @param count Number of baskets
+     * @param size Number of lines per basket
+     * @return The generated baskets
+     */
+    static List<Basket> syntheticBaskets(String prodStorePath, String storeID, String customerID,
+                                         int count, int size) throws IOException {
+        List<String> assortment = new ArrayList<String>();
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(prodStorePath))){
+            reader.readLine(); // Header
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] vals = line.split(",");
+                if(vals[2].trim().equals(storeID)) assortment.add(vals[0].trim());
+            }
+        }
+
+        if(assortment.isEmpty()) throw new IOException("Store " + storeID + " sells no products");
+
+        Random rand = new Random(42);
+        List<Basket> baskets = new ArrayList<Basket>();
+        for(int i = 0; i < count; i++){
+            Basket basket = new Basket(storeID, customerID);
+            for(int j = 0; j < size; j++){
+                basket.lines.add(new String[]{assortment.get(rand.nextInt(assortment.size())),
+                                              String.valueOf(1 + rand.nextInt(3))});
+            }
+            baskets.add(basket);
+        }
+
+        return baskets;
+    }
+
+    /**
+     * Runs every lane until each has replayed the requested number of baskets. A
+     * basket fails if any of its commands is refused. A lane that loses its
+     * connection stops, and the latencies only cover the baskets it replayed.
+     *
+     * @param laneCount Number of concurrent registers
+     * @param perLane Baskets replayed by each register
+     */
+    public void run(int laneCount, int perLane) throws InterruptedException {
+        AtomicLong committed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long[][] latencies = new long[laneCount][perLane];
+        int[] replayed = new int[laneCount];
+
+        Thread[] lanes = new Thread[laneCount];
+        for(int i = 0; i < laneCount; i++){
+            final int lane = i;
+            lanes[i] = new Thread(() -> {
+                try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)){
+
+                    socket.setTcpNoDelay(true);
+
+                    for(int n = 0; n < perLane; n++){
+                        Basket basket = baskets.get((lane + n * laneCount) % baskets.size());
+                        long start = System.nanoTime();
+
+                        String res = send(writer, reader, "trans " + basket.storeID + " " + basket.customerID);
+                        if(res.startsWith("OK")){
+                            for(String[] item : basket.lines){
+                                res = send(writer, reader, "add " + item[0] + " " + item[1]);
+                                if(!res.startsWith("OK")) break;
+                            }
+
+                            // A refused line drops the whole basket
+                            if(res.startsWith("OK")) res = send(writer, reader, "enter");
+                            if(!res.startsWith("OK")) send(writer, reader, "cancel");
+                        }
+
+                        latencies[lane][n] = System.nanoTime() - start;
+                        replayed[lane] = n + 1;
+                        if(res.startsWith("OK")) committed.incrementAndGet();
+                        else failed.incrementAndGet();
+                    }
+
+                    writer.println("exit");
+                } catch(IOException e){
+                    System.out.println("Lane " + lane + " failed: " + e.getMessage());
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for(Thread lane : lanes) lane.start();
+        for(Thread lane : lanes) lane.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int total = 0;
+        for(int count : replayed) total += count;
+
+        long[] all = new long[total];
+        int filled = 0;
+        for(int i = 0; i < laneCount; i++){
+            System.arraycopy(latencies[i], 0, all, filled, replayed[i]);
+            filled += replayed[i];
+        }
+        Arrays.sort(all);
+
+        double p50 = all.length == 0 ? Double.NaN : all[all.length / 2] / 1e6;
+        double p99 = all.length == 0 ? Double.NaN : all[(int) (all.length * 0.99)] / 1e6;
+
+        System.out.printf("%-8d%-12d%-10d%-12.1f%-12.2f%-12.2f\n", laneCount, committed.get(), failed.get(),
+                          committed.get() / seconds, p50, p99);
+    }
+
+    /**
+     * Sends one command and waits for its response line.
+     */
+    private static String send(PrintWriter writer, BufferedReader reader, String cmd) throws IOException {
+        writer.println(cmd);
+        String res = reader.readLine();
+        if(res == null) throw new IOException("Server closed the lane");
+        return res;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // Usage: [port] [lanes,lanes,...] [basketsPerLane] [synthetic <StoreID> <CustomerID> <lines>]
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5320;
+        String[] laneSteps = (args.length > 1 ? args[1] : "1,2,4,8,16").split(",");
+        int perLane = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        List<Basket> baskets;
+        if(args.length > 6 && args[3].equals("synthetic")){
+            baskets = syntheticBaskets("./data/prod_store.csv", args[4], args[5], 1000, Integer.parseInt(args[6]));
+        } else {
+            baskets = recordedBaskets("./data/transaction.csv", "./data/prod_transaction.csv");
+        }
+
+        CheckoutLoadGen gen = new CheckoutLoadGen(port, baskets);
+
+        System.out.printf("%-8s%-12s%-10s%-12s%-12s%-12s\n", "Lanes", "Committed", "Failed", "Trans/s", "p50(ms)", "p99(ms)");
+        for(String step : laneSteps){
+            gen.run(Integer.parseInt(step.trim()), perLane);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package apps;
+
+import database.CheckoutJournal;
+import database.ConnectionPool;
+import database.GroupCommitter;
+import database.ReorderPipeline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checkout service mode for CounterPoint. Every register connects over a local
+ * socket and is served by its own lane, lanes share a bounded connection pool
+ * which is only held while a basket is being entered.
+ *
+ * Protocol, one command per line, one response line per command:
+ *      trans <StoreID> <CustomerID>    OK | ERR <reason>
+ *      add <upc14> <QTY>               OK | ERR <reason>
+ *      remove <upc14> [QTY]            OK | ERR <reason>
+ *      enter                           OK <Total> <Filled>/<Lines> | FAIL
+ *      cancel                          OK
+ *      stats                           OK <Group commit summary> | ERR <reason>
+ *      exit                            Closes the lane
+ *
+ * With group commit, the baskets entered by all lanes within a few milliseconds
+ * are committed by one database transaction, see GroupCommitter.
+ */
+public class CheckoutServer {
+
+    /**
+     * Inner class lane used to serve a single register connection.
+     */
+    class Lane implements Runnable {
+
+        private final Socket socket;
+        private final CounterPoint point;
+        private CounterPoint.Checkout checkout;
+
+        public Lane(Socket socket){
+            this.socket = socket;
+            this.point = new CounterPoint();
+            this.point.journal = journal;
+            this.point.committer = committer;
+        }
+
+        @Override
+        public void run(){
+            try(Socket s = socket;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                PrintWriter writer = new PrintWriter(s.getOutputStream(), true)){
+
+                String line;
+                while((line = reader.readLine()) != null){
+                    String[] vals = line.trim().split(" ");
+
+                    if(vals[0].equals("exit")) break;
+
+                    writer.println(handle(vals));
+                }
+
+            } catch(IOException e){
+                System.out.println("Lane closed: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Runs a single protocol command against this lane's checkout.
+         *
+         * @param vals The split command line
+         * @return The response line
+         */
+        private String handle(String[] vals){
+            switch(vals[0]){
+                case "trans": {
+                    if(vals.length != 3) return "ERR Expected <StoreID> <CustomerID>";
+
+                    try{
+                        Integer.parseInt(vals[1]);
+                        Integer.parseInt(vals[2]);
+                    } catch(NumberFormatException e){
+                        return "ERR Non-numeric id";
+                    }
+
+                    Connection conn = null;
+                    try{
+                        conn = pool.borrow();
+                        point.conn = conn;
+
+                        if(!point.storeExists(vals[1])) return "ERR Unknown store " + vals[1];
+                        if(!point.customerExists(Integer.parseInt(vals[2]))) return "ERR Unknown customer " + vals[2];
+                    } catch(SQLException e){
+                        return "ERR " + e.getMessage();
+                    } finally {
+                        point.conn = null;
+                        pool.release(conn);
+                    }
+
+                    checkout = point.new Checkout(vals[1], vals[2]);
+                    return "OK";
+                }
+                case "add": {
+                    if(checkout == null) return "ERR No open transaction";
+                    if(vals.length != 3) return "ERR Expected <upc14> <QTY>";
+
+                    try{
+                        if(!checkout.addItem(vals[1], Integer.parseInt(vals[2]))) return "ERR Not a upc14";
+                    } catch(NumberFormatException e){
+                        return "ERR Quantity is non-numeric";
+                    }
+
+                    return "OK";
+                }
+                case "remove": {
+                    if(checkout == null) return "ERR No open transaction";
+                    if(vals.length < 2) return "ERR Expected <upc14> [QTY]";
+
+                    try{
+                        checkout.removeItem(vals[1], vals.length > 2 ? Integer.parseInt(vals[2]) : -1);
+                    } catch(NumberFormatException e){
+                        return "ERR Quantity is non-numeric";
+                    }
+
+                    return "OK";
+                }
+                case "enter": {
+                    if(checkout == null) return "ERR No open transaction";
+
+                    Connection conn = null;
+                    boolean success = false;
+                    try{
+                        conn = pool.borrow();
+                        point.conn = conn;
+
+                        checkout.correctItems();
+
+                        // The group committer writes on its own connection
+                        if(committer != null){
+                            point.conn = null;
+                            pool.release(conn);
+                            conn = null;
+                        }
+
+                        success = checkout.enterTransaction();
+                    } catch(SQLException e){
+                        return "FAIL " + e.getMessage();
+                    } finally {
+                        point.conn = null;
+                        pool.release(conn);
+                    }
+
+                    if(!success) return "FAIL";
+
+                    int filled = 0;
+                    Basket basket = checkout.basket();
+                    for(int i = 0; i < basket.size(); i++){
+                        CounterPoint.LineStatus status = basket.status(i);
+                        if(status != CounterPoint.LineStatus.NotFound
+                           && status != CounterPoint.LineStatus.OutOfStock) filled++;
+                    }
+
+                    String res = "OK " + Basket.format(checkout.basketTotalCents()) + " " + filled + "/" + basket.size();
+                    checkout = null;
+                    committed.incrementAndGet();
+
+                    return res;
+                }
+                case "cancel": {
+                    checkout = null;
+                    return "OK";
+                }
+                case "stats": {
+                    if(committer == null) return "ERR Group commit is off";
+                    return "OK " + committer.summary();
+                }
+                default: {
+                    return "ERR Invalid command";
+                }
+            }
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final CheckoutJournal journal;
+    private final GroupCommitter committer;
+    private final ExecutorService lanes;
+    private final AtomicLong committed;
+
+    /**
+     * Constructor for the checkout server
+     *
+     * @param location The location of the .db file.
+     * @param user The username for the database.
+     * @param password The password to the database.
+     * @param poolSize The number of database connections shared by the lanes.
+     * @param maxLanes The number of registers served at once, extra registers wait.
+     * @param journaled True to append baskets to the checkout journal at location.journal
+     * @param groupWindowMs Milliseconds the baskets of a commit group are collected for, negative
+     *                      to commit every basket on its own
+     * @param groupSize The largest number of baskets committed together
+     */
+    public CheckoutServer(String location,
+                          String user,
+                          String password,
+                          int poolSize,
+                          int maxLanes,
+                          boolean journaled,
+                          int groupWindowMs,
+                          int groupSize) throws IOException, SQLException {
+
+        // The group committer keeps one connection for itself
+        boolean grouped = groupWindowMs >= 0 && !journaled;
+        this.pool = new ConnectionPool(location, user, password, grouped ? poolSize + 1 : poolSize);
+        this.lanes = Executors.newFixedThreadPool(maxLanes);
+        this.committed = new AtomicLong();
+
+        ReorderPipeline.start(pool);
+        this.journal = journaled ? CheckoutJournal.open(location + ".journal", pool) : null;
+        this.committer = grouped ? new GroupCommitter(pool, groupWindowMs, groupSize) : null;
+    }
+
+    /**
+     * Accepts register connections on the loopback interface until the process is stopped.
+     *
+     * @param port The local port to listen on.
+     */
+    public void serve(int port) throws IOException {
+        try(ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())){
+            System.out.println("Checkout server listening on " + server.getLocalSocketAddress());
+
+            for(;;){
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                lanes.execute(new Lane(socket));
+            }
+        }
+    }
+
+    /**
+     * Used on program exit, stops the lanes and closes the database.
+     */
+    public void shutdown(){
+        lanes.shutdownNow();
+        if(journal != null) journal.close();
+        if(committer != null){
+            committer.close();
+            System.out.print("Group commit: " + committer.report());
+        }
+        ReorderPipeline.stop();
+        System.out.println("Committed transactions: " + committed.get());
+        System.out.println("Statement cache hits: " + pool.cacheHits() + ", misses: " + pool.cacheMisses());
+        pool.close();
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+
+        // Usage: [port] [poolSize] [maxLanes] [--journal | --group[=windowMs,maxBaskets]]
+        boolean journaled = false;
+        int groupWindowMs = -1;
+        int groupSize = GroupCommitter.MAX_BASKETS;
+
+        List<String> positional = new ArrayList<String>();
+        for(String arg : args){
+            if(arg.equals("--journal")){
+                journaled = true;
+            } else if(arg.startsWith("--group")){
+                groupWindowMs = GroupCommitter.WINDOW_MS;
+
+                if(arg.startsWith("--group=")){
+                    String[] vals = arg.substring(8).split(",");
+                    groupWindowMs = Integer.parseInt(vals[0]);
+                    if(vals.length > 1) groupSize = Integer.parseInt(vals[1]);
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        int port = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 5320;
+        int poolSize = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 8;
+        int maxLanes = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : 64;
+
+        CheckoutServer server = new CheckoutServer("./database/db", "user", "password", poolSize, maxLanes,
+                                                   journaled, groupWindowMs, groupSize);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+
+        server.serve(port);
+    }
+}
@@ -1,13 +1,18 @@
 package apps;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Scanner;
-import javafx.util.Pair; 
 import java.util.Map;
-import java.util.Date;
-import java.util.Calendar;
+import java.io.IOException;
 import java.sql.*;
+import database.CheckoutJournal;
+import database.ConnectionPool;
+import database.GroupCommitter;
+import database.ProductCache;
+import database.ReorderPipeline;
 
 /**
  * Main driver program for the counterpoint application.
@@ -16,20 +21,34 @@ import java.sql.*;
  */
 public class CounterPoint{
 
+    // Checked for an index by SchemaManager
+    public static final String STORE_EXISTS_SQL = "SELECT 1 FROM STORES WHERE Store_ID = ?;";
+    public static final String CUSTOMER_EXISTS_SQL = "SELECT 1 FROM CUSTOMER WHERE CUSTOMER_ID = ?;";
+    public static final String CUSTOMER_NAME_SQL = "SELECT FIRSTNAME, LASTNAME FROM CUSTOMER WHERE CUSTOMER_ID = ?;";
+    public static final String SELL_SQL =
+        "UPDATE PROD_STORE SET INVENTORY = INVENTORY - ? WHERE UPC14 = ? AND STORE_ID = ? AND INVENTORY >= ?;";
+    public static final String SALES_DAILY_SQL =
+        "MERGE INTO SALES_DAILY S USING (SELECT CAST(? AS INT) STORE_ID, CAST(? AS CHAR(14)) UPC14, " +
+        "CAST(? AS DATE) DAY, CAST(? AS BIGINT) QTY FROM DUAL) N " +
+        "ON (S.STORE_ID = N.STORE_ID AND S.UPC14 = N.UPC14 AND S.DAY = N.DAY) " +
+        "WHEN MATCHED THEN UPDATE SET QTY = S.QTY + N.QTY " +
+        "WHEN NOT MATCHED THEN INSERT VALUES(N.STORE_ID, N.UPC14, N.DAY, N.QTY);";
+    public static final String INVENTORY_SQL = "SELECT INVENTORY FROM PROD_STORE WHERE UPC14 = ? AND STORE_ID = ?;";
+    public static final String RESTOCK_SELECT_SQL =
+        "SELECT REQUEST_ID, UPC_14, QUANTITY FROM REORDER_REQUEST " +
+        "WHERE STORE_ID = ? AND SHIPMENT_DATE < DATEADD('DAY', 1, CURRENT_DATE) FOR UPDATE;";
+    public static final String RESTOCK_UPDATE_SQL = "UPDATE PROD_STORE SET INVENTORY = INVENTORY + ? WHERE UPC14 = ? AND STORE_ID = ?;";
+    public static final String RESTOCK_DELETE_SQL = "DELETE FROM REORDER_REQUEST WHERE REQUEST_ID = ?;";
+
     /**
-     * Tbl enum represents item tables
+     * LineStatus enum represents the outcome of a single basket line
+     * after a transaction has been entered.
      */
-    enum Tbl{
-        Items("ITEMS"),
-        Foods("FOODS"),
-        Beverage("BEVERAGE"),
-        Pharma("PHARMA");
-
-        private final String name;
-
-        Tbl(String s){
-            name = s;
-        }
+    enum LineStatus{
+        Filled,
+        Partial,
+        OutOfStock,
+        NotFound
     }
 
     /**
@@ -39,19 +58,21 @@ public class CounterPoint{
      * @author Dylan R. Wagner
      * 
      */
-    class Checkout{
+    class Checkout implements GroupCommitter.Work {
+
+        // Reads of a product's inventory before a line is given up as sold out
+        private static final int MAX_RESERVE_TRIES = 8;
 
         private int storeID;
         private int customerID;
-        private HashMap<String, Integer> trans;
-        private HashMap<String, Pair<CounterPoint.Tbl, Double>> tblMap;
+        private Basket trans;
+        private Timestamp entered;
 
         public Checkout(String storeID, String customerID){
             this.storeID = Integer.parseInt(storeID);
             this.customerID = Integer.parseInt(customerID);
 
-            this.trans = new HashMap<String, Integer>();
-            this.tblMap = new HashMap<String, Pair<CounterPoint.Tbl, Double>>();
+            this.trans = new Basket();
         }
 
         /**
@@ -113,7 +134,9 @@ public class CounterPoint{
                                 break;
                             }
 
-                            this.addItem(upc14, qty);
+                            if(!this.addItem(upc14, qty)){
+                                System.out.println("Item: " + upc14 + " is not a upc14");
+                            }
                         }
 
                         break;
@@ -141,6 +164,7 @@ public class CounterPoint{
                         correctItems();
                         if(enterTransaction()){
                             printReceipt();
+                            printLineReport();
                             return;
                         } else {
                             System.out.println("Transaction Failed!");
@@ -162,77 +186,95 @@ public class CounterPoint{
         }
 
         /**
-         * Adds item to the transaction. Invalid items are allowed to pass through
-         * this method.
+         * Adds item to the transaction. Items the store does not carry are allowed
+         * to pass through this method.
          * 
          * @param upc14 Unique item id
          * @param qty # of items to add to the transaction
+         * @return False if upc14 is not a 14 digit code
          */
-        private void addItem(String upc14, int qty){
+        boolean addItem(String upc14, int qty){
+            long key = ProductCache.pack(upc14);
+            if(key == 0) return false;
 
-            if(this.trans.containsKey(upc14)){
-                int currQty = this.trans.get(upc14);
-                this.trans.put(upc14, currQty + qty);
-            } else {
-                this.trans.put(upc14, qty);
-            }
+            this.trans.add(key, qty);
+            return true;
         }
 
         /**
-         * Grabs all information needed to display a receipt item.
-         * FORMAT: '\tPrice($)\tQuantity\tItem\n'  
+         * Finds the name of every item on the receipt. Names are served by the
+         * store's product cache, the rest are fetched from the product catalog
+         * with one query.
          * 
-         * @param upc14 The item unique code
-         * @param qty The actual quantity of the item. 
-         * @return
-         *      The price (price * qty)
+         * @return Names by basket line, items without a name are null
          */
-        private Double printItem(String upc14, Integer qty){
-            Double totalItemsPrice = null;
-
-            try {
+        private String[] receiptNames() throws SQLException {
+            String[] names = new String[this.trans.size()];
+            ProductCache cache = ProductCache.forStore(conn, this.storeID);
 
-                String tblName = this.tblMap.get(upc14).getKey().name();
-                Double price = this.tblMap.get(upc14).getValue();
+            // Items missing from the cache
+            List<String> missing = new ArrayList<String>();
 
-                PreparedStatement pstmt = conn.prepareStatement(
-                "SELECT NAME FROM " + tblName + " WHERE UPC14 = ?;");
+            for (int i = 0; i < this.trans.size(); i++) {
+                if (this.trans.quantity(i) <= 0) continue;
 
-                pstmt.setString(1, upc14);
-                ResultSet res = pstmt.executeQuery();
+                names[i] = cache.name(this.trans.upc(i));
 
-                if (res.next()){
-                    System.out.printf("\t %-10s%-10s%s\n", price.toString(), qty.toString(), res.getString(1));
+                if (names[i] == null) {
+                    missing.add(ProductCache.unpack(this.trans.upc(i)));
                 }
+            }
 
-                totalItemsPrice = qty * price;
+            if (missing.isEmpty()) return names;
 
-            } catch(SQLException e){
-                e.printStackTrace();
+            // Padded to a power of two so few distinct statements reach the statement cache
+            int params = Integer.highestOneBit(missing.size());
+            if (params < missing.size()) params <<= 1;
+
+            PreparedStatement pstmt = conn.prepareStatement(namesSql(params));
+            for (int i = 0; i < params; i++) {
+                pstmt.setString(i + 1, missing.get(Math.min(i, missing.size() - 1)));
+            }
+
+            ResultSet res = pstmt.executeQuery();
+            while (res.next()) {
+                int line = this.trans.indexOf(ProductCache.pack(res.getString(1)));
+                if (line >= 0) names[line] = res.getString(2);
             }
 
-            return totalItemsPrice;
+            return names;
         }
 
         /**
-         * Prints the whole receipt including total. 
+         * Prints the whole receipt including total. The receipt is rendered into
+         * a reused buffer and written out at once.
+         * FORMAT: '\tPrice($)\tQuantity\tItem\n'
          */
-        private void printReceipt(){
+        void printReceipt(){
+            String[] names;
 
-            System.out.println("\nCustomer: " + customerName(customerID));
-            // Print receipt header 
-            System.out.printf("\n\t %-10s%-10s%s\n", "Price", "Quantity", "Item");
+            try {
+                names = receiptNames();
+            } catch(SQLException e){
+                e.printStackTrace();
+                names = new String[this.trans.size()];
+            }
 
-            Double totalPrice = 0.0;
+            receipt.setLength(0);
+            receipt.append("\nCustomer: ").append(customerName(customerID)).append('\n');
+            // Receipt header
+            receiptFormat.format("\n\t %-10s%-10s%s\n", "Price", "Quantity", "Item");
 
-            for (Map.Entry<String, Integer> entry : this.trans.entrySet()) {
-                String key = entry.getKey();
-                Integer val = entry.getValue();
+            for (int i = 0; i < this.trans.size(); i++) {
+                int val = this.trans.quantity(i);
+                if (val <= 0 || names[i] == null) continue;
 
-                if (val != null && val > 0) totalPrice += printItem(key, val);
+                receiptFormat.format("\t %-10s%-10d%s\n", Basket.format(this.trans.priceCents(i)), val, names[i]);
             }
 
-            System.out.printf("\n\tTotal: %.2f\n", totalPrice);
+            receipt.append("\n\tTotal: ").append(Basket.format(this.trans.totalCents())).append('\n');
+
+            System.out.print(receipt);
         }
 
         /**
@@ -241,18 +283,9 @@ public class CounterPoint{
          * @param upc14 Unique item id
          * @param qty # of items to add to the transaction
          */
-        private void removeItem(String upc14, int qty){
-
-            if(this.trans.containsKey(upc14)){
-                int currQty = this.trans.get(upc14) - qty;
-
-                if(currQty < 0 || qty == -1){
-                     this.trans.remove(upc14);
-                } else {
-                    this.trans.put(upc14, currQty);
-                }
+        void removeItem(String upc14, int qty){
 
-            } else {
+            if(!this.trans.remove(ProductCache.pack(upc14), qty)){
                 System.out.println("Item: " + upc14 + " not found in transaction");
             }            
         }
@@ -263,15 +296,15 @@ public class CounterPoint{
          * @return The constructed SQL insert command in format:
          * INSERT INTO TRANSACTIONS VALUES(null, TIMESTAMP_STR, STORE_ID, CUSTOMER_ID)
          */
-        private PreparedStatement makeTransInsertPSTMT() throws SQLException{
+        private PreparedStatement makeTransInsertPSTMT(Connection db) throws SQLException{
 
-            PreparedStatement pstmt = conn.prepareStatement(
+            PreparedStatement pstmt = db.prepareStatement(
             "INSERT INTO TRANSACTIONS VALUES(null, ?, ?, ?);", 
             Statement.RETURN_GENERATED_KEYS);
 
-            String timestamp = new Timestamp(System.currentTimeMillis()).toString();
+            this.entered = new Timestamp(System.currentTimeMillis());
 
-            pstmt.setString(1, timestamp);
+            pstmt.setString(1, this.entered.toString());
             pstmt.setInt(2, this.storeID);
             pstmt.setInt(3, this.customerID);
 
@@ -279,99 +312,251 @@ public class CounterPoint{
         }
 
         /**
-         * Queries the database for the maximum available for purchase. Providing the 
-         * amount to be included into the purchase. 
+         * Looks up the maximum available for purchase in the store's product cache,
+         * falling back to the database for products added since the cache was loaded.
+         * Providing the amount to be included into the purchase, the line's price
+         * is set on the way.
          * 
-         * @param upc14 The item to be purchased
-         * @param tryAmt The amount requested
+         * @param line The basket line to be purchased
          * @return
          *      The amount requested if the maximum found is greater than the requested amount.
-         *      null if the item to be purchased cannot be found. 
+         *      Basket.NOT_FOUND if the item to be purchased cannot be found. 
          */
-        private Integer getBuyAmount(String upc14, Integer tryAmt){
+        private int getBuyAmount(int line){
             try{
-                PreparedStatement stmt = conn.prepareStatement(
-                "SELECT INVENTORY, TBL_ENUM, PRICE FROM PROD_STORE WHERE upc14 = ? AND STORE_ID = ?;");
+                ProductCache cache = ProductCache.forStore(conn, this.storeID);
+                long key = this.trans.upc(line);
 
-                stmt.setString(1, upc14);
-                stmt.setInt(2, this.storeID);
+                // The cached inventory is a hint, restocks by other processes only show in PROD_STORE
+                if (cache.stale(key) || cache.inventory(key) < this.trans.requested(line)){
+                    boolean found = journal != null ? journal.refresh(conn, cache, key)
+                                                    : cache.refresh(conn, key, 0);
 
-                ResultSet res = stmt.executeQuery();
+                    if (!found) return Basket.NOT_FOUND; // Cannot find the product in the store
+                }
 
-                if (res.next()){
-                    int amtFound = res.getInt(1);
-                    // Grab corresponding tbl enum
-                    CounterPoint.Tbl resTbl = CounterPoint.Tbl.values()[res.getInt(2)];
-                    Double price = res.getDouble(3);
-                    this.tblMap.put(upc14, new Pair<CounterPoint.Tbl, Double>(resTbl, price));
+                int amtFound = cache.inventory(key);
+                this.trans.setPriceCents(line, cache.priceCents(key));
 
-                    return amtFound > tryAmt ? tryAmt : amtFound;
-                } else {
-                    return null; // Cannot find the product in the store
-                }
+                int tryAmt = this.trans.requested(line);
+                return amtFound > tryAmt ? tryAmt : amtFound;
             } catch(SQLException e) {
-                return null;
+                return Basket.NOT_FOUND;
             }
         }
 
         /**
-         * Updates the PROD_STORE table to reflect the purchase while tracking the
-         * transactions of individual items within the TRANS_PROD table.
+         * Enters and updates all valid items as three statement batches.
+         * 
+         * The PROD_STORE update batch runs first. Each update only applies while the
+         * store still has the line's quantity, so lanes selling the same product
+         * never drive its inventory negative; a line whose update found less left is
+         * retried with what remains by reserveRemaining(). Lines are updated in upc14
+         * order so two baskets never wait on each other's row locks in a cycle.
+         * 
+         * Only lines that took stock are then queued into the PROD_TRANSACTIONS insert
+         * batch and added to the store's SALES_DAILY row for the day. Each line's
+         * outcome is recorded into the basket.
          * 
          * While calling this function, autocommit is turned off.
          * This is to force atom-icy onto this section. 
-         *  
-         * @param upc14 The item to be bought.
-         * @param qty The item quantity. 
+         *
+         * @param db The connection the transaction is written on
+         * @param transactionKey The key that was inserted into the database
          */
-        private void updateProdAddTransItem(Long transID, String upc14, Integer qty)
-        throws SQLException
-        {
-            PreparedStatement upStmt = conn.prepareStatement(
-            "UPDATE PROD_STORE SET INVENTORY = INVENTORY - ? WHERE UPC14 = ? AND STORE_ID = ?;");
+        private void enterItems(Connection db, Long transactionKey) throws SQLException {
+
+            PreparedStatement upStmt = db.prepareStatement(SELL_SQL);
+
+            this.trans.sort();
 
-            upStmt.setInt(1, qty); // Inventory amount
-            upStmt.setString(2, upc14); // upc14
-            upStmt.setInt(3, storeID); // store_id 
+            // Basket lines in the update batch
+            int[] batched = new int[this.trans.size()];
+            int count = 0;
 
-            PreparedStatement insStmt = conn.prepareStatement(
+            for (int i = 0; i < this.trans.size(); i++) {
+                int val = this.trans.quantity(i);
+
+                if (val == Basket.NOT_FOUND) {
+                    this.trans.setStatus(i, LineStatus.NotFound);
+                } else if (val <= 0) {
+                    this.trans.setStatus(i, LineStatus.OutOfStock);
+                } else {
+                    upStmt.setInt(1, val); // Inventory amount
+                    upStmt.setString(2, ProductCache.unpack(this.trans.upc(i))); // upc14
+                    upStmt.setInt(3, storeID); // store_id
+                    upStmt.setInt(4, val); // Inventory left at least
+                    upStmt.addBatch();
+
+                    batched[count++] = i;
+                }
+            }
+
+            if (count == 0) return;
+
+            int[] upCounts = upStmt.executeBatch();
+
+            PreparedStatement insStmt = db.prepareStatement(
             "INSERT INTO PROD_TRANSACTIONS VALUES(?, ?, ?)");
-            
-            insStmt.setLong(1, transID); // Key from main transaction entry
-            insStmt.setString(2, upc14); // upc14
-            insStmt.setInt(3, qty); // quantity
 
-            upStmt.executeUpdate();
-            insStmt.executeUpdate();
+            // The inventory update holds the (store, upc14) row lock, so checkouts of the
+            // same product never race on its rollup row
+            PreparedStatement rollStmt = db.prepareStatement(SALES_DAILY_SQL);
+
+            Date day = new Date(this.entered.getTime());
+            boolean queued = false;
+
+            for (int b = 0; b < count; b++) {
+                int i = batched[b];
+                String key = ProductCache.unpack(this.trans.upc(i));
+
+                // Less left than the cache showed, or the row disappeared since the lookup
+                if (upCounts[b] == 0) {
+                    int taken = reserveRemaining(db, upStmt, key, this.trans.quantity(i));
+                    this.trans.setQuantity(i, taken);
+
+                    if (taken == Basket.NOT_FOUND) {
+                        this.trans.setStatus(i, LineStatus.NotFound);
+                        continue;
+                    }
+                    if (taken == 0) {
+                        this.trans.setStatus(i, LineStatus.OutOfStock);
+                        continue;
+                    }
+                }
+
+                int val = this.trans.quantity(i);
+
+                insStmt.setLong(1, transactionKey); // Key from main transaction entry
+                insStmt.setString(2, key); // upc14
+                insStmt.setInt(3, val); // quantity
+                insStmt.addBatch();
+
+                rollStmt.setInt(1, storeID);
+                rollStmt.setString(2, key);
+                rollStmt.setDate(3, day);
+                rollStmt.setInt(4, val);
+                rollStmt.addBatch();
+                queued = true;
+
+                this.trans.setStatus(i, val < this.trans.requested(i) ? LineStatus.Partial : LineStatus.Filled);
+            }
+
+            if (!queued) return;
+
+            insStmt.executeBatch();
+            rollStmt.executeBatch();
         }
 
         /**
-         * Enters and updates all valid items.
+         * Takes what is left of a product once the batched update found less than
+         * qty in the store. The inventory is read again and the conditional update
+         * retried with the smaller amount, as other lanes may sell the product in
+         * between, up to MAX_RESERVE_TRIES times. The cached inventory is corrected
+         * with every read.
          * 
-         * @param transactionKey The key that was inserted into the database
+         * @param db The connection the transaction is written on
+         * @param upStmt The conditional inventory update
+         * @param upc14 The item to be purchased
+         * @param qty The amount the batch tried to take
+         * @return The amount taken, 0 if sold out, Basket.NOT_FOUND if the store does not carry the item
          */
-        private void enterItems(Long transactionKey) throws SQLException {
+        private int reserveRemaining(Connection db, PreparedStatement upStmt, String upc14, int qty)
+        throws SQLException
+        {
+            PreparedStatement invStmt = db.prepareStatement(INVENTORY_SQL);
+
+            ProductCache cache = ProductCache.ifLoaded(this.storeID);
+
+            for (int tries = 0; tries < MAX_RESERVE_TRIES; tries++) {
+                invStmt.setString(1, upc14);
+                invStmt.setInt(2, this.storeID);
+
+                ResultSet res = invStmt.executeQuery();
+                if (!res.next()) return Basket.NOT_FOUND;
+
+                int left = res.getInt(1);
+                if (cache != null) cache.setInventory(ProductCache.pack(upc14), left);
+
+                if (left <= 0) return 0;
 
-            for (Map.Entry<String, Integer> entry : this.trans.entrySet()) {
-                String key = entry.getKey();
-                Integer val = entry.getValue();
+                int take = Math.min(qty, left);
+                upStmt.setInt(1, take);
+                upStmt.setString(2, upc14);
+                upStmt.setInt(3, this.storeID);
+                upStmt.setInt(4, take);
 
-                if (val != null) {
-                        updateProdAddTransItem(transactionKey, key, val);
+                if (upStmt.executeUpdate() == 1) return take;
+            }
+
+            return 0;
+        }
+
+        /**
+         * Applies the committed inventory changes to the store's product cache.
+         */
+        private void writeThrough(){
+            ProductCache cache = ProductCache.ifLoaded(this.storeID);
+            if (cache == null) return;
+
+            for (int i = 0; i < this.trans.size(); i++) {
+                LineStatus status = this.trans.status(i);
+
+                if (status == LineStatus.Filled || status == LineStatus.Partial) {
+                    cache.adjustInventory(this.trans.upc(i), -this.trans.quantity(i));
                 }
             }
         }
 
+        /**
+         * Sums the price of every line entered by the last transaction.
+         * 
+         * @return The basket total in cents, (price * qty) over all lines.
+         */
+        long basketTotalCents(){
+            return this.trans.totalCents();
+        }
+
+        /**
+         * @return The basket, holding the outcome of each line of the last entered transaction.
+         */
+        Basket basket(){
+            return this.trans;
+        }
+
+        /**
+         * Displays every basket line that was not entered as requested.
+         * FORMAT: '\tStatus\tFilled/Requested\tItem\n'
+         */
+        private void printLineReport(){
+            StringBuilder report = new StringBuilder();
+
+            for (int i = 0; i < this.trans.size(); i++) {
+                LineStatus status = this.trans.status(i);
+                if (status == null || status == LineStatus.Filled) continue;
+
+                report.append(String.format("\t %-12s%-10s%s\n", status.name(),
+                    Math.max(this.trans.quantity(i), 0) + "/" + this.trans.requested(i),
+                    ProductCache.unpack(this.trans.upc(i))));
+            }
+
+            if (report.length() > 0) {
+                System.out.print("\nNot fully entered:\n" + report);
+            }
+        }
+
         /**
          * Corrects the items within the user transaction. This function changes the
-         * transaction map such that invalid items are assigned a null and 
+         * basket such that items the store does not carry are marked Basket.NOT_FOUND and 
          * no valid item has a quantity that is greater than the amount currently in the store.
          */
-        private void correctItems(){
+        void correctItems(){
+            this.trans.resetRequested();
+
             // Find the correct buy amount
-            this.trans.forEach((key, val) -> {
-                this.trans.put(key, getBuyAmount(key, val));
-            });
+            for (int i = 0; i < this.trans.size(); i++) {
+                this.trans.setQuantity(i, getBuyAmount(i));
+            }
         }
 
         /**
@@ -380,29 +565,30 @@ public class CounterPoint{
          * 
          * @return True: on full or partial success, False: on full failure. 
          */
-        private Boolean enterTransaction(){
+        Boolean enterTransaction(){
+            if (journal != null) return journalTransaction();
+            if (committer != null) return committer.submit(this);
+
             boolean success = false;
 
             try{
                 // Turn off auto commit, make transaction
                 conn.setAutoCommit(false);
 
-                PreparedStatement stmt = makeTransInsertPSTMT();
-                stmt.executeUpdate();
+                write(conn);
 
-                ResultSet rs = stmt.getGeneratedKeys();
-                if (rs.next()){
-                    Long genKey = stmt.getGeneratedKeys().getLong(1); // Get generated key
-                    enterItems(genKey);
+                conn.commit();
+                success = true;
 
-                    conn.commit();
-                    success = true;
-                }
+                ReorderPipeline.committed();
+                writeThrough();
 
             } catch(SQLException e) {
                 try{
                     conn.rollback();
                 } catch(SQLException e_nested) {}
+
+                ReorderPipeline.rolledBack();
             }
 
             try {
@@ -412,12 +598,96 @@ public class CounterPoint{
             return success;
         }
 
+        /**
+         * Inserts the transaction and enters its items, without committing.
+         * 
+         * @param db The connection to write on, autocommit is off
+         */
+        @Override
+        public void write(Connection db) throws SQLException {
+            PreparedStatement stmt = makeTransInsertPSTMT(db);
+            stmt.executeUpdate();
+
+            ResultSet rs = stmt.getGeneratedKeys();
+            if (!rs.next()) throw new SQLException("No transaction id generated");
+
+            enterItems(db, rs.getLong(1)); // Generated key
+        }
+
+        /**
+         * Called by the group committer once the basket's group has committed.
+         */
+        @Override
+        public void committed(){
+            writeThrough();
+        }
+
+        /**
+         * Journal mode counterpart of enterTransaction. Stock is taken from the
+         * store's product cache and the basket is appended to the checkout journal,
+         * the journal's applier enters it into the database later.
+         * 
+         * @return True once the basket is on disk, False if it could not be journaled.
+         */
+        private Boolean journalTransaction(){
+            try{
+                ProductCache cache = ProductCache.forStore(conn, this.storeID);
+                this.entered = new Timestamp(System.currentTimeMillis());
+
+                long[] upc = new long[this.trans.size()];
+                int[] qty = new int[this.trans.size()];
+                int lines = 0;
+
+                // Held so a refresh of the cache never sees stock taken but not yet journaled
+                synchronized (journal) {
+                    for (int i = 0; i < this.trans.size(); i++) {
+                        int val = this.trans.quantity(i);
+
+                        if (val == Basket.NOT_FOUND) {
+                            this.trans.setStatus(i, LineStatus.NotFound);
+                            continue;
+                        }
+
+                        int taken = val > 0 ? cache.take(this.trans.upc(i), val) : 0;
+                        this.trans.setQuantity(i, taken);
+
+                        if (taken == 0) {
+                            this.trans.setStatus(i, LineStatus.OutOfStock);
+                            continue;
+                        }
+
+                        this.trans.setStatus(i, taken < this.trans.requested(i) ? LineStatus.Partial : LineStatus.Filled);
+                        upc[lines] = this.trans.upc(i);
+                        qty[lines++] = taken;
+                    }
+
+                    boolean journaled;
+                    try{
+                        journaled = journal.append(this.entered.getTime(), this.storeID, this.customerID, upc, qty, lines);
+                    } catch(IOException e){
+                        journaled = false;
+                    }
+
+                    if (!journaled) {
+                        // Give the stock back
+                        for (int i = 0; i < lines; i++) cache.adjustInventory(upc[i], qty[i]);
+                    }
+
+                    return journaled;
+                }
+            } catch(SQLException e) {
+                return false;
+            }
+        }
+
         /**
          * Displays the transaction to the user.
          */
         private void showTransaction(){
-            this.trans.forEach((key, val) ->
-            {if(val > 0) System.out.println(key + ": " + val.toString());});
+            for (int i = 0; i < this.trans.size(); i++) {
+                int val = this.trans.quantity(i);
+                if (val > 0) System.out.println(ProductCache.unpack(this.trans.upc(i)) + ": " + val);
+            }
         }
 
         /**
@@ -491,107 +761,98 @@ public class CounterPoint{
         }
 
         /**
-         * Updates the prod_store table with the items found within the restock table.
+         * Restocks all of the reorder requests for the current store whose shipment
+         * date has passed, as one transaction.
          * 
-         * @param upc14 The item key
-         * @param inventory The amount to update.
-         * @return
-         *      True on success, false on failure.
+         * The due requests are read and locked by a single query, a shipment entered
+         * meanwhile is left for the next restock. Their quantities are summed per
+         * product, then the inventory updates and the request deletes each go to the
+         * database as one batch.
+         * 
+         * @return Number of requests applied, -1 on failure
          */
-        private boolean updateProdStore(String upc14, Integer inventory){
+        int restockAll(){
+            int applied = -1;
+
             try {
-                PreparedStatement pstmt = conn.prepareStatement(
-                "UPDATE PROD_STORE SET INVENTORY = INVENTORY + ? WHERE UPC14 = ? AND STORE_ID = ?;");
+                conn.setAutoCommit(false);
 
-                pstmt.setInt(1, inventory);
-                pstmt.setString(2, upc14);
-                pstmt.setInt(3, storeID);
+                PreparedStatement select = conn.prepareStatement(RESTOCK_SELECT_SQL);
 
-                pstmt.executeUpdate();
+                select.setInt(1, storeID);
 
-                return true;
+                ResultSet res = select.executeQuery();
 
-            } catch(SQLException e){
-                e.printStackTrace();
-            }
+                PreparedStatement delete = conn.prepareStatement(RESTOCK_DELETE_SQL);
 
-            return false;
-        }
+                // Total shipped quantity of every product, in request order
+                LinkedHashMap<String, Integer> shipped = new LinkedHashMap<String, Integer>();
+                int requests = 0;
 
-        /**
-         * Deletes a reorder request from the reorder_request table.
-         *
-         * @param request_id The reorder request id
-         */
-        private void deleteRestockReq(int request_id){
-            try {
-                PreparedStatement pstmt = conn.prepareStatement(
-                "DELETE FROM REORDER_REQUEST WHERE REQUEST_ID = ?;");
+                while(res.next()){
+                    shipped.merge(res.getString(2), res.getInt(3), Integer::sum);
 
-                pstmt.setInt(1, request_id);
+                    delete.setInt(1, res.getInt(1));
+                    delete.addBatch();
+                    requests++;
+                }
 
-                pstmt.executeUpdate();
-            } catch(SQLException e) {
-                e.printStackTrace();;
-            }
-        }
+                PreparedStatement update = conn.prepareStatement(RESTOCK_UPDATE_SQL);
 
-        /**
-         * Restocks all of the reorder requests for the current store.
-         */
-        private void restockAll(){
-            try {
-                PreparedStatement pstmt = conn.prepareStatement(
-                "SELECT * FROM REORDER_REQUEST WHERE STORE_ID = ? AND SHIPMENT_DATE IS NOT NULL;");
+                for(Map.Entry<String, Integer> entry : shipped.entrySet()){
+                    update.setInt(1, entry.getValue());
+                    update.setString(2, entry.getKey());
+                    update.setInt(3, storeID);
+                    update.addBatch();
+                }
 
-                pstmt.setInt(1, storeID);
+                int[] updated = update.executeBatch();
+                delete.executeBatch();
 
-                ResultSet res = pstmt.executeQuery();
+                conn.commit();
+                applied = requests;
 
-                while(res.next()){
-                    // Get today's date without time
-                    Calendar c1 = Calendar.getInstance();
-                    c1.set(Calendar.HOUR_OF_DAY, 0);
-                    c1.set(Calendar.MINUTE, 0);
-                    c1.set(Calendar.SECOND, 0);
-                    c1.set(Calendar.MILLISECOND, 0);
-                    Date today = c1.getTime();
-
-                    // Get shipment date without time
-                    Timestamp shipment_date = res.getTimestamp("SHIPMENT_DATE");
-                    Calendar c2 = Calendar.getInstance();
-                    c2.setTime(shipment_date);
-                    c2.set(Calendar.HOUR_OF_DAY, 0);
-                    c2.set(Calendar.MINUTE, 0);
-                    c2.set(Calendar.SECOND, 0);
-                    c2.set(Calendar.MILLISECOND, 0);
-                    Date ship_date = c2.getTime();
-
-                    // Update inventory and close request if shipment date has passed
-                    if(today.after(ship_date)||today.equals(ship_date)) {
-                        String upc14Val = res.getString("UPC_14");
-                        Integer qty = res.getInt("QUANTITY");
-
-                        updateProdStore(upc14Val, qty);
-
-                        System.out.printf("Updated: %s, QTY: %s, Store: %d\n", upc14Val, qty, storeID);
-
-                        // Remove completed reorder request
-                        int request_id = res.getInt("REQUEST_ID");
-                        deleteRestockReq(request_id);
+                ProductCache cache = ProductCache.ifLoaded(storeID);
+                int i = 0;
+                for(Map.Entry<String, Integer> entry : shipped.entrySet()){
+                    // Products the store doesn't carry only close their request
+                    if(updated[i++] > 0 && cache != null){
+                        cache.adjustInventory(ProductCache.pack(entry.getKey()), entry.getValue());
                     }
+
+                    System.out.printf("Updated: %s, QTY: %s, Store: %d\n", entry.getKey(), entry.getValue(), storeID);
                 }
 
+                System.out.printf("Restocked %d requests, %d products\n", requests, shipped.size());
+
             } catch(SQLException e) {
-                e.printStackTrace();;
+                e.printStackTrace();
+                try{
+                    conn.rollback();
+                } catch(SQLException e_nested) {}
             }
+
+            try {
+                conn.setAutoCommit(true);
+            } catch (Exception e) {}
+
+            return applied;
         }
     }
 
+    // Receipt buffer, reused by every receipt of this point
+    private final StringBuilder receipt = new StringBuilder(1024);
+    private final Formatter receiptFormat = new Formatter(receipt);
     // User input
     Scanner in;
+    // Database connection pool
+    ConnectionPool pool;
     // Database connection
     Connection conn;
+    // Checkout journal, null when baskets are entered directly
+    CheckoutJournal journal;
+    // Commits baskets together with other lanes, null to commit each on conn
+    GroupCommitter committer;
 
 
     /**
@@ -604,13 +865,31 @@ public class CounterPoint{
     public CounterPoint(String location, 
                         String user, 
                         String password){
+        this(location, user, password, false);
+    }
+
+    /**
+     * Constructor for the counter point class
+     * 
+     * @param location The location of the .db file.
+     * @param user The username for the database.
+     * @param password The password to the database.
+     * @param journaled True to append baskets to the checkout journal at location.journal
+     */
+    public CounterPoint(String location, 
+                        String user, 
+                        String password,
+                        boolean journaled){
         
-        String url = "jdbc:h2:" + location;
+        // Second connection is used by the reorder pipeline, the third by the journal applier
+        this.pool = new ConnectionPool(location, user, password, journaled ? 3 : 2);
 
         try{
-            this.conn = DriverManager.getConnection(url, user, password);
-            System.out.println("Connected: " + url + ";IFEXISTS=TRUE");
-        } catch (SQLException e) {
+            this.conn = pool.borrow();
+            ReorderPipeline.start(pool);
+            if(journaled) this.journal = CheckoutJournal.open(location + ".journal", pool);
+            System.out.println("Connected: " + pool.getUrl() + ";IFEXISTS=TRUE");
+        } catch (SQLException | IOException e) {
             e.printStackTrace();
             System.exit(1);
         }
@@ -618,15 +897,21 @@ public class CounterPoint{
         this.in = new Scanner(System.in);
     }
 
+    /**
+     * Constructor for service mode, no connection or user input is opened. The
+     * caller assigns conn for as long as it needs the database.
+     */
+    CounterPoint(){
+    }
+
     /**
     * Used on program exit, closes the database. 
     */
     public void closeConnection(){
-		try {
-			conn.close();
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+        if(journal != null) journal.close();
+        ReorderPipeline.stop();
+        pool.release(conn);
+        pool.close();
     }
 
     /**
@@ -702,22 +987,37 @@ public class CounterPoint{
      * @param storeID The id of the store to be checked
      * @return True if store is found, False otherwise
      */
-    private Boolean storeExists(String storeID){
+    Boolean storeExists(String storeID){
         
-        String query = "SELECT 1 FROM STORES WHERE Store_ID = " + storeID + ";";
-        int nrows = 0;
+        boolean found = false;
 
         try{
-            Statement stmt = conn.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            res.last();
-            nrows = res.getRow();
+            PreparedStatement pstmt = conn.prepareStatement(STORE_EXISTS_SQL);
+
+            pstmt.setInt(1, Integer.parseInt(storeID));
+            ResultSet res = pstmt.executeQuery();
+            found = res.next();
 
+        } catch(NumberFormatException e){
+            return false;
         } catch(SQLException e){
             e.printStackTrace();
         }
 
-        return nrows == 1;
+        return found;
+    }
+
+    /**
+     * @param params Number of products looked up
+     * @return Query for the catalog names of the products
+     */
+    public static String namesSql(int params){
+        StringBuilder query = new StringBuilder("SELECT UPC14, NAME FROM PRODUCT_CATALOG WHERE UPC14 IN (");
+        for (int i = 0; i < params; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+
+        return query.append(");").toString();
     }
 
     /**
@@ -731,8 +1031,7 @@ public class CounterPoint{
         String name = "UNKNOWN";
 
         try {
-            PreparedStatement pstmt = conn.prepareStatement(
-            "SELECT FIRSTNAME, LASTNAME FROM CUSTOMER WHERE CUSTOMER_ID = ?;");
+            PreparedStatement pstmt = conn.prepareStatement(CUSTOMER_NAME_SQL);
 
             pstmt.setInt(1, customerID);
             ResultSet res = pstmt.executeQuery();
@@ -754,22 +1053,22 @@ public class CounterPoint{
      * @param customerID The id of the customer to be checked
      * @return True if customer is found, False otherwise
      */
-    private Boolean customerExists(Integer customerID){
+    Boolean customerExists(Integer customerID){
         
-        String query = "SELECT 1 FROM CUSTOMER WHERE CUSTOMER_ID = " + customerID.toString() + ";";
-        int nrows = 0;
+        boolean found = false;
 
         try{
-            Statement stmt = conn.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            res.last();
-            nrows = res.getRow();
+            PreparedStatement pstmt = conn.prepareStatement(CUSTOMER_EXISTS_SQL);
+
+            pstmt.setInt(1, customerID);
+            ResultSet res = pstmt.executeQuery();
+            found = res.next();
 
         } catch(SQLException e){
             e.printStackTrace();
         }
 
-        return nrows == 1;
+        return found;
     }
 
     /**
@@ -783,8 +1082,11 @@ public class CounterPoint{
     }
 
     public static void main(String[] args) {
+
+        // Usage: [--journal]
+        boolean journaled = args.length > 0 && args[0].equals("--journal");
         
-        CounterPoint mainObj = new CounterPoint("./database/db", "user", "password");
+        CounterPoint mainObj = new CounterPoint("./database/db", "user", "password", journaled);
 
         System.out.println("Commands:");
         System.out.println("    exit - Quits the program");
@@ -1,7 +1,12 @@
 package apps;
 
+import database.ConnectionPool;
+import database.CustomerImport;
+import database.IdAllocator;
+import database.TransactionPartitions;
 import org.h2.util.StringUtils;
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -10,14 +15,54 @@ import java.util.Scanner;
 public class CustomerApp {
 
     private Scanner in;
+    private ConnectionPool pool;
     private Connection conn;
+    private final IdAllocator customerIDs = new IdAllocator("CUSTOMER_SEQ");
+
+    // Product attributes shown by retrieveProductInfo: label, column
+    private static final String[][] PRODUCT_ATTRIBUTES = {
+        {"Name", "NAME"},
+        {"Brand_ID", "BRAND_ID"},
+        {"Calories", "CALORIES"},
+        {"Storage", "STORAGE"},
+        {"Allergens", "ALLERGENS"},
+        {"Weight", "WEIGHT"},
+        {"Alcoholic", "ALCOHOLIC"},
+        {"Over The Counter", "OTC"}
+    };
+
+    // Transactions per page of a customer's history
+    static final int HISTORY_PAGE = 50;
+
+    // Archived transactions of a customer joined to their products, oldest first
+    static final String ARCHIVED_HISTORY_SQL = "SELECT * FROM ARCHIVED_HISTORY(?);";
+
+    // Page buffer of retrieveCustomerTransactions, reused across pages
+    private final StringBuilder history = new StringBuilder(4096);
+
+    // Key of the last transaction read by printHistory, where the next page starts
+    private long lastID;
+    private Timestamp lastTime;
+
+    // Checked for an index by SchemaManager, consumables without allergens show None
+    public static final String PRODUCT_INFO_SQL =
+        "SELECT NAME, BRAND_ID, CALORIES, STORAGE, " +
+        "CASE WHEN CALORIES IS NOT NULL THEN COALESCE(ALLERGENS, 'None') END AS ALLERGENS, " +
+        "WEIGHT, ALCOHOLIC, OTC FROM PRODUCT_CATALOG WHERE UPC14 = ?;";
+    public static final String CUSTOMER_EXISTS_SQL = "SELECT 1 FROM CUSTOMER WHERE CUSTOMER_ID = ?;";
+    public static final String STORE_LIST_SQL = "SELECT STORE_ID,PRICE FROM PROD_STORE WHERE UPC14 = ?;";
+    public static final String STORE_INFO_SQL = "SELECT * FROM STORES WHERE STORE_ID = ?;";
+    public static final String MOST_SOLD_SQL =
+        "SELECT UPC14, SUM(QTY) AS Q FROM SALES_DAILY WHERE STORE_ID = ? AND DAY >= ? " +
+        "GROUP BY UPC14 ORDER BY Q DESC, UPC14 LIMIT ?;";
+    public static final String INVENTORY_SQL = "SELECT UPC14, STORE_ID, INVENTORY FROM PROD_STORE WHERE STORE_ID = ? AND UPC14 = ?;";
 
     public CustomerApp(String location, String user, String password){
-        String url = "jdbc:h2:" + location;
+        this.pool = new ConnectionPool(location, user, password, 1);
 
         try {
-            this.conn = DriverManager.getConnection(url, user, password);
-            System.out.println("Connected: " + url + ";IFEXISTS=TRUE");
+            this.conn = pool.borrow();
+            System.out.println("Connected: " + pool.getUrl() + ";IFEXISTS=TRUE");
         }
         catch (SQLException e) {
             e.printStackTrace();
@@ -31,11 +76,8 @@ public class CustomerApp {
      * Used on program exit, closes the database.
      */
     public void closeConnection(){
-        try {
-            conn.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        pool.release(conn);
+        pool.close();
     }
 
     /**
@@ -46,20 +88,22 @@ public class CustomerApp {
      */
     private Boolean customerExists(String customerID){
 
-        String query = "SELECT 1 FROM CUSTOMER WHERE CUSTOMER_ID = " + customerID + ";";
-        int nrows = 0;
+        boolean found = false;
 
         try{
-            Statement stmt = conn.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            res.last();
-            nrows = res.getRow();
+            PreparedStatement pstmt = conn.prepareStatement(CUSTOMER_EXISTS_SQL);
 
+            pstmt.setInt(1, Integer.parseInt(customerID));
+            ResultSet res = pstmt.executeQuery();
+            found = res.next();
+
+        } catch(NumberFormatException e){
+            return false;
         } catch(SQLException e){
             e.printStackTrace();
         }
 
-        return nrows == 1;
+        return found;
     }
 
     /**
@@ -87,19 +131,23 @@ public class CustomerApp {
                 String fname = inputValues[0];
                 String lname = inputValues[1];
                 String phone = inputValues[2];
-                int customer_ID = getNewID();
-                
-                String query = String.format("INSERT INTO CUSTOMER VALUES (%d,'%s','%s','%s');",customer_ID,fname,lname,phone);
 
                 try {
-                    Statement statement = conn.createStatement();
-                    statement.execute(query);
+                    int customer_ID = getNewID();
+
+                    PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO CUSTOMER VALUES (?, ?, ?, ?);");
+                    pstmt.setInt(1, customer_ID);
+                    pstmt.setString(2, fname);
+                    pstmt.setString(3, lname);
+                    pstmt.setString(4, phone);
+                    pstmt.executeUpdate();
 
                     System.out.printf("NEW CUSTOMER:\n    ID: %d\n    Name: %s %s\n    Phone Number: %s\nENTER to continue\n>> ",customer_ID,fname,lname,phone);
                     in.nextLine();
 
                     //GOES BACK TO INITIAL SCREEN
-                    System.out.print("\n<Customer_ID> (NEW to create ID):\nEXIT to quit program.\n");
+                    System.out.print("\n<Customer_ID> (NEW to create ID, IMPORT <File> to enroll a csv file):\nEXIT to quit program.\n");
                 }
                 catch(SQLException e){
                     e.printStackTrace();
@@ -110,54 +158,151 @@ public class CustomerApp {
     }
 
     /**
-     * Auto-Increments the ID of a newly created customer based on the highest numeric value ID of an already existing customer and adding one.
+     * Enrolls every customer of a csv file in the layout of data/customer.csv whose phone number is not
+     * taken yet, see CustomerImport.
      *
-     * @return  - the int value of the new customer ID
+     * @param path  - the csv file
      */
-    private int getNewID(){
-        String query = "SELECT MAX(CUSTOMER_ID) FROM CUSTOMER";
+    private void importCustomers(String path){
         try{
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
-            if(res.next()){
-                return res.getInt(1) + 1;
-            }
-
+            new CustomerImport(conn, customerIDs, Runtime.getRuntime().availableProcessors()).run(path);
         }
-        catch(SQLException e){
-            e.printStackTrace();
+        catch(Exception e){
+            System.out.println("Import failed: " + e.getMessage());
         }
 
-        return -1;
+        System.out.print("\n<Customer_ID> (NEW to create ID, IMPORT <File> to enroll a csv file):\nEXIT to quit program.\n");
     }
 
     /**
-     * Retrieves and prints a list of the Customer_ID's transactions from the database.
+     * Takes the next customer ID from the CUSTOMER_SEQ block reserved by this process.
+     *
+     * @return  - the int value of the new customer ID
+     */
+    private int getNewID() throws SQLException {
+        return (int) customerIDs.next(conn);
+    }
+
+    /**
+     * Retrieves and prints a list of the Customer_ID's transactions from the database, oldest first.
+     *
+     * The archived months holding the customer are read first, in one call of ARCHIVED_HISTORY,
+     * then the month tables left by TransactionPartitions from the oldest and the current tables
+     * last. Each table is read in pages of page_Size transactions, each page starting after the
+     * (TIMESTAMP, TRANSACTION_ID) key of the last transaction printed, and every page is printed
+     * as soon as it is read. Past the archive, memory use and the wait for each page stay the same however
+     * long the history is.
      *
      * @param customer_ID   - the specific customer_ID
+     * @param page_Size     - the number of transactions fetched per query
+     * @return the number of transactions printed
      */
-    private void retrieveCustomerTransactions(String customer_ID){
-        String query = "SELECT TRANSACTIONS.TRANSACTION_ID,TIMESTAMP,STORE_ID,UPC14,QUANTITY FROM (TRANSACTIONS JOIN PROD_TRANSACTIONS) WHERE CUSTOMER_ID = '" + customer_ID + "' AND TRANSACTIONS.TRANSACTION_ID = PROD_TRANSACTIONS.TRANSACTION_ID;";
+    int retrieveCustomerTransactions(String customer_ID, int page_Size){
+        int printed = 0;
 
         try{
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
-            if(res.next()){
+            int customerID = Integer.parseInt(customer_ID);
+            TransactionPartitions partitions = new TransactionPartitions(conn, TransactionPartitions.ARCHIVE_DIR);
+
+            if(partitions.hasArchive(customerID)){
+                PreparedStatement archived = conn.prepareStatement(ARCHIVED_HISTORY_SQL);
+                archived.setInt(1, customerID);
+                printed += printHistory(archived, page_Size);
+            }
+
+            // The current tables are listed first, they hold the newest month
+            List<String[]> tables = partitions.liveTables();
+            tables.add(tables.remove(0));
+
+            for(String[] table : tables){
+                PreparedStatement first = conn.prepareStatement(historySql(false, table[0], table[1]));
+                PreparedStatement next = conn.prepareStatement(historySql(true, table[0], table[1]));
+                first.setFetchSize(page_Size);
+                next.setFetchSize(page_Size);
+
+                lastTime = null;
+                int transactions;
+
                 do{
-                    System.out.println("\nTransaction_ID: " + res.getInt("TRANSACTION_ID")+
-                                     "\n    Time/Date: " + res.getString("TIMESTAMP")+
-                                     "\n    Store ID: " + res.getInt("STORE_ID")+
-                                     "\n    Product UPC14: " + res.getString("UPC14")+
-                                     "\n    Quantity: " + res.getInt("QUANTITY")+"\n");
-                } while (res.next());
+                    PreparedStatement pstmt = lastTime == null ? first : next;
+                    pstmt.setInt(1, customerID);
+                    if(lastTime != null){
+                        pstmt.setTimestamp(2, lastTime);
+                        pstmt.setTimestamp(3, lastTime);
+                        pstmt.setLong(4, lastID);
+                    }
+                    pstmt.setInt(lastTime == null ? 2 : 5, page_Size);
+
+                    transactions = printHistory(pstmt, page_Size);
+                    printed += transactions;
+                } while(transactions == page_Size);
             }
-            else{
+
+            if(printed == 0){
                 System.out.println("NO PREVIOUS TRANSACTIONS");
             }
         }
+        catch(NumberFormatException e){
+            System.out.println("NO PREVIOUS TRANSACTIONS");
+        }
         catch(SQLException e){
             e.printStackTrace();
         }
+
+        return printed;
+    }
+
+    /**
+     * Runs a history query and prints its rows, a page of page_Size transactions at a time.
+     *
+     * @param pstmt     - query of transactions joined to their products, oldest first
+     * @param page_Size - transactions printed at once
+     * @return the number of transactions read
+     */
+    private int printHistory(PreparedStatement pstmt, int page_Size) throws SQLException {
+        history.setLength(0);
+        int transactions = 0;
+
+        try(ResultSet res = pstmt.executeQuery()){
+            while(res.next()){
+                if(transactions == 0 || res.getLong(1) != lastID){
+                    if(transactions > 0 && transactions % page_Size == 0){
+                        System.out.print(history);
+                        history.setLength(0);
+                    }
+
+                    transactions++;
+                    lastID = res.getLong(1);
+                    lastTime = res.getTimestamp(2);
+                }
+
+                if(res.getString(4) == null) continue; // Transaction without products
+
+                history.append("\nTransaction_ID: ").append(res.getLong(1))
+                       .append("\n    Time/Date: ").append(res.getString(2))
+                       .append("\n    Store ID: ").append(res.getInt(3))
+                       .append("\n    Product UPC14: ").append(res.getString(4))
+                       .append("\n    Quantity: ").append(res.getInt(5)).append("\n\n");
+            }
+        }
+
+        System.out.print(history);
+        return transactions;
+    }
+
+    /**
+     * @param after True for the pages after the first, keyed by the last (TIMESTAMP, TRANSACTION_ID)
+     * @param trans A transaction table, TRANSACTIONS or one of its month tables
+     * @param lines The matching product table
+     * @return Query for one page of a customer's transactions joined to their products
+     */
+    public static String historySql(boolean after, String trans, String lines){
+        return "SELECT T.TRANSACTION_ID, T.TIMESTAMP, T.STORE_ID, PT.UPC14, PT.QUANTITY FROM " +
+               "(SELECT TRANSACTION_ID, TIMESTAMP, STORE_ID FROM " + trans + " WHERE CUSTOMER_ID = ?" +
+               (after ? " AND TIMESTAMP >= ? AND (TIMESTAMP > ? OR TRANSACTION_ID > ?)" : "") +
+               " ORDER BY CUSTOMER_ID, TIMESTAMP, TRANSACTION_ID LIMIT ?) T " +
+               "LEFT JOIN " + lines + " PT ON PT.TRANSACTION_ID = T.TRANSACTION_ID " +
+               "ORDER BY T.TIMESTAMP, T.TRANSACTION_ID, PT.UPC14;";
     }
 
     /**
@@ -166,10 +311,11 @@ public class CustomerApp {
      * @param upc14 - the specific product_upc_14
      */
     private void retrieveStoreList(String upc14){
-        String query = "SELECT STORE_ID,PRICE FROM PROD_STORE WHERE UPC14 = '" + upc14 + "';";
         try {
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
+            PreparedStatement pstmt = conn.prepareStatement(STORE_LIST_SQL);
+            pstmt.setString(1, upc14);
+
+            ResultSet res = pstmt.executeQuery();
             if(res.next()){
                 System.out.println("\nList of Availability for: " + upc14);
                 do{
@@ -191,10 +337,11 @@ public class CustomerApp {
      * @param store_ID  - the specific store_ID
      */
     private void retrieveStoreInfo(String store_ID){
-        String query = "SELECT * FROM STORES WHERE STORE_ID = '" + store_ID +"';";
         try {
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
+            PreparedStatement pstmt = conn.prepareStatement(STORE_INFO_SQL);
+            pstmt.setString(1, store_ID);
+
+            ResultSet res = pstmt.executeQuery();
             if (res.next()) {
                 System.out.println("\nStore_ID: " + store_ID +
                                    "\n  Address: " + res.getString("ADDRESS") + ", " + res.getString("CITY") + "," + res.getString("STATE") + "," + res.getString("ZIP"));
@@ -209,25 +356,34 @@ public class CustomerApp {
     }
 
     /**
-     * Retrieves and prints the information of the most sold product at a specific store from the database.
-     *
-     * INCOMPLETE
+     * Retrieves and prints the most sold products at a specific store from the SALES_DAILY
+     * rollup, which checkout keeps current, so the transaction history is not rescanned.
      *
      * @param store_ID  - the specific store_ID
+     * @param days      - the window in days ending today, 0 for all history
+     * @param n         - the number of products printed
      */
-    private void retrieveMostSoldProduct(String store_ID){
-        String subQuery = "SELECT UPC14,SUM(QUANTITY) AS Q FROM (TRANSACTIONS INNER JOIN PROD_TRANSACTIONS ON TRANSACTIONS.TRANSACTION_ID = PROD_TRANSACTIONS.TRANSACTION_ID) WHERE STORE_ID = " + store_ID + " GROUP BY UPC14";
-        String query = "SELECT UPC14,Q FROM (" + subQuery + ") WHERE Q=(SELECT DISTINCT MAX(Q) FROM (" + subQuery + "));";
+    void retrieveMostSoldProduct(String store_ID, int days, int n){
         try{
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
+            PreparedStatement pstmt = conn.prepareStatement(MOST_SOLD_SQL);
+            pstmt.setInt(1, Integer.parseInt(store_ID));
+            pstmt.setDate(2, days > 0 ? new Date(System.currentTimeMillis() - (days - 1) * 86400000L) : new Date(0));
+            pstmt.setInt(3, n);
+
+            ResultSet res = pstmt.executeQuery();
             if(res.next()){
-                System.out.println("\nBased on recent transaction data..." +
-                                   "\nMost Sold Product at Store: " + store_ID +
-                                   "\n   UPC14: " + res.getString(1) +
-                                   "\n   QUANTITY: " + res.getInt(2));
+                System.out.print("\nBased on " + (days > 0 ? "the last " + days + " days of" : "recent") + " transaction data..." +
+                                 "\nMost Sold Product" + (n > 1 ? "s" : "") + " at Store: " + store_ID);
+                do{
+                    System.out.print("\n   UPC14: " + res.getString(1) +
+                                     "\n   QUANTITY: " + res.getLong(2));
+                } while(res.next());
+                System.out.println();
             }
         }
+        catch(NumberFormatException e){
+            System.out.print("Invalid Store_ID");
+        }
         catch(SQLException e){
             e.printStackTrace();
         }
@@ -239,10 +395,12 @@ public class CustomerApp {
      * @param store_ID  - the specific store_ID
      */
     private void retrieveInventory(String upc14, String store_ID){
-        String query = "SELECT UPC14, STORE_ID, INVENTORY FROM PROD_STORE WHERE STORE_ID = '" + store_ID + "' AND UPC14 = '" + upc14 + "';";
         try {
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
+            PreparedStatement pstmt = conn.prepareStatement(INVENTORY_SQL);
+            pstmt.setString(1, store_ID);
+            pstmt.setString(2, upc14);
+
+            ResultSet res = pstmt.executeQuery();
             if (res.next()) {
                 System.out.println("\nProduct UPC_14: " + upc14 + "   Store_ID: " + store_ID +
                                  "\n    Inventory: " + res.getString("INVENTORY"));
@@ -264,71 +422,21 @@ public class CustomerApp {
      * @param upc14 - the specific product_upc_14
      */
     private void retrieveProductInfo(String upc14){
-        String query = "SELECT DISTINCT TBL_ENUM FROM PROD_STORE WHERE UPC14 = '" + upc14 + "';";
         try {
-            Statement statement = conn.createStatement();
-            ResultSet res = statement.executeQuery(query);
+            PreparedStatement pstmt = conn.prepareStatement(PRODUCT_INFO_SQL);
+            pstmt.setString(1, upc14);
+
+            ResultSet res = pstmt.executeQuery();
             if(res.next()){
-                int prodType = res.getInt("TBL_ENUM");
-
-                //IF PRODUCT IS NON-CONSUMABLE
-                if(prodType == 0){
-                    query = "Select * from ITEMS WHERE UPC14 = '" + upc14 + "';";
-                    res = statement.executeQuery(query);
-                    if(res.next()){
-                        System.out.println("\nUPC_14: " + upc14 +
-                                         "\n    Name: " + res.getString("NAME") +
-                                         "\n    Brand_ID: " + res.getString("BRAND_ID"));
-                    }
-                }
-                //IF PRODUCT IS PHARMACEUTICAL
-                else if(prodType == 3){
-                    query = "Select * from PHARMA WHERE UPC14 = '" + upc14 + "';";
-                    res = statement.executeQuery(query);
-                    if(res.next()){
-                        System.out.println("\nUPC_14: " + upc14 +
-                                "\n    Name: " + res.getString("NAME") +
-                                "\n    Brand_ID: " + res.getString("BRAND_ID") +
-                                "\n    Over The Counter: " + res.getString("OTC"));
-                    }
-                }
-                //IF PRODUCT IS A FOOD
-                else if(prodType == 1){
-                    query = "Select * from FOODS WHERE UPC14 = '" + upc14 + "';";
-                    res = statement.executeQuery(query);
-                    if(res.next()){
-                        String allergens = res.getString("ALLERGENS");
-
-                        if(allergens == null) allergens = "None";
-
-                        System.out.println("\nUPC_14: " + upc14 +
-                                "\n    Name: " + res.getString("NAME") +
-                                "\n    Brand_ID: " + res.getString("BRAND_ID") +
-                                "\n    Calories: " + res.getInt("CALORIES") +
-                                "\n    Storage: " + res.getString("STORAGE") +
-                                "\n    Allergens: " + allergens +
-                                "\n    Weight: " + res.getString("WEIGHT"));
-                    }
-                }
-                //IF PRODUCT IS A BEVERAGE
-                else{
-                    query = "Select * from BEVERAGE WHERE UPC14 = '" + upc14 + "';";
-                    res = statement.executeQuery(query);
-                    if(res.next()){
-                        String allergens = res.getString("ALLERGENS");
-
-                        if(allergens == null) allergens = "None";
-
-                        System.out.println("\nUPC_14: " + upc14 +
-                                "\n    Name: " + res.getString("NAME") +
-                                "\n    Brand_ID: " + res.getString("BRAND_ID") +
-                                "\n    Calories: " + res.getInt("CALORIES") +
-                                "\n    Storage: " + res.getString("STORAGE") +
-                                "\n    Allergens: " + allergens +
-                                "\n    Weight: " + res.getString("WEIGHT") +
-                                "\n    Alcoholic: " + res.getString("ALCOHOLIC"));
-                    }
+                StringBuilder info = new StringBuilder("\nUPC_14: " + upc14);
+
+                // Attributes the product's type does not have are null
+                for(String[] attribute : PRODUCT_ATTRIBUTES){
+                    String val = res.getString(attribute[1]);
+                    if(val != null) info.append("\n    ").append(attribute[0]).append(": ").append(val);
                 }
+
+                System.out.println(info);
             }
         }
         catch(SQLException e){
@@ -342,7 +450,7 @@ public class CustomerApp {
      */
     private void runApplication(){
 
-        System.out.print("\n<Customer_ID> (NEW to create ID):\nEXIT to quit program.\n");
+        System.out.print("\n<Customer_ID> (NEW to create ID, IMPORT <File> to enroll a csv file):\nEXIT to quit program.\n");
 
         while(true){
             System.out.print(">> ");
@@ -354,6 +462,10 @@ public class CustomerApp {
             if(input.equals("NEW")){
                 createCustomer();
             }
+            // ENROLLS THE CUSTOMERS OF A CSV FILE
+            else if(input.startsWith("IMPORT ")){
+                importCustomers(input.substring(7).trim());
+            }
             // IF USER INPUTS A NUMERIC ID
             else if(StringUtils.isNumber(input)){
 
@@ -366,10 +478,10 @@ public class CustomerApp {
                 else{
                     String customer_ID = input;
 
-                    System.out.print("1) List of Transactions" +
+                    System.out.print("1) List of Transactions [Page_Size]" +
                                    "\n2) List of Stores that sell <Product_UPC_14>" +
                                    "\n3) Information of Store <Store_ID>" +
-                                   "\n4) Most sold product at <Store_ID>" +
+                                   "\n4) Most sold product at <Store_ID> [Days] [Count]" +
                                    "\n5) Inventory of <Product_UPC_14> at <Store_ID>" +
                                    "\n6) Information of <Product_UPC_14>."+
                                    "\n   Enter numeric choice with specific input (e.g. '5 <Product_UPC_14> <Store_ID>')" +
@@ -387,11 +499,22 @@ public class CustomerApp {
                         //WHICHEVER OPTION USER CHOSE...
                         switch (inputValues[0]) {
                             case "1": {
-                                if(inputValues.length != 1){
+                                if(inputValues.length > 2){
                                     System.out.print("Invalid Format");
                                 }
                                 else{
-                                    retrieveCustomerTransactions(customer_ID);
+                                    try{
+                                        int page = inputValues.length > 1 ? Integer.parseInt(inputValues[1]) : HISTORY_PAGE;
+                                        if(page > 0){
+                                            retrieveCustomerTransactions(customer_ID, page);
+                                        }
+                                        else{
+                                            System.out.print("Invalid Format");
+                                        }
+                                    }
+                                    catch(NumberFormatException e){
+                                        System.out.print("Invalid Format");
+                                    }
                                 }
                                 break;
                             }
@@ -414,11 +537,18 @@ public class CustomerApp {
                                 break;
                             }
                             case "4": {
-                                if(inputValues.length != 2){
+                                if(inputValues.length < 2 || inputValues.length > 4){
                                     System.out.print("Invalid Format");
                                 }
                                 else{
-                                    retrieveMostSoldProduct(inputValues[1]);
+                                    try{
+                                        int days = inputValues.length > 2 ? Integer.parseInt(inputValues[2]) : 0;
+                                        int n = inputValues.length > 3 ? Integer.parseInt(inputValues[3]) : 1;
+                                        retrieveMostSoldProduct(inputValues[1], days, n);
+                                    }
+                                    catch(NumberFormatException e){
+                                        System.out.print("Invalid Format");
+                                    }
                                 }
                                 break;
                             }
@@ -444,10 +574,10 @@ public class CustomerApp {
                                 exitProgram();
                             }
                             case "HELP":{
-                                System.out.print("1) List of Transactions" +
+                                System.out.print("1) List of Transactions [Page_Size]" +
                                         "\n2) List of Stores that sell <Product_UPD_14>" +
                                         "\n3) Information of Store <Store_ID>" +
-                                        "\n4) Most sold product at <Store_ID>" +
+                                        "\n4) Most sold product at <Store_ID> [Days] [Count]" +
                                         "\n5) Inventory of <Product_UPC_14> at <Store_ID>" +
                                         "\n6) Information of <Product_UPC_14>."+
                                         "\n   Enter numeric choice with specific input (e.g. '5 <Product_UPC_14> <Store_ID>')" +
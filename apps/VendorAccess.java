@@ -3,6 +3,7 @@ package apps;
 import java.sql.Connection;
 import java.util.Scanner;
 import java.sql.*;
+import database.ConnectionPool;
 import java.util.Date;
 import java.util.Calendar;
 import java.util.regex.Matcher;
@@ -11,14 +12,15 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 
 // SQL Statements
-// 01: SELECT * FROM REORDER_REQUEST WHERE VENDOR_ID = SUPPLIED_ID AND SHIPMENT_DATE IS NULL;
-//      Get all open reorder requests for a given vendor
+// 01: SELECT COUNT(*), SUM(QUANTITY), COUNT(DISTINCT STORE_ID), COUNT(DISTINCT UPC_14), MIN(REQUEST_ID) FROM REORDER_REQUEST
+//     WHERE VENDOR_ID = SUPPLIED_ID AND SHIPMENT_DATE IS NULL; joined to REORDER_REQUEST for the oldest request
+//      Sums up the open reorder requests for a given vendor
 // 02: UPDATE REORDER_REQUEST SET SHIPMENT_DATE = SUPPLIED_DATE WHERE REQUEST_ID = SUPPLIED_ID;
 //      Close an open reorder request by setting its shipment date
-// 03: SELECT * FROM REORDER_REQUEST WHERE UPC_14 = SUPPLIED_UPC14 AND SHIPMENT_DATE IS NULL AND VENDOR_ID = SUPPLIED_ID;
+// 03: SELECT REQUEST_ID, STORE_ID, QUANTITY FROM REORDER_REQUEST WHERE UPC_14 = SUPPLIED_UPC14 AND SHIPMENT_DATE IS NULL AND VENDOR_ID = SUPPLIED_ID;
 //      Gets all open reorder requests for signed-in vendor for a given UPC_14 code
-// 04: SELECT count(REQUEST_ID) FROM REORDER_REQUEST WHERE UPC_14 = SUPPLIED_UPC14 AND SHIPMENT_DATE IS NULL AND VENDOR_ID = SUPPLIED_ID;
-//      Gets count of all open reorder requests for signed-in vendor for a given UPC_14 code
+// 04: SELECT ... FROM REORDER_REQUEST WHERE VENDOR_ID = SUPPLIED_ID AND SHIPMENT_DATE IS NULL [GROUP BY UPC_14 | STORE_ID] LIMIT ? OFFSET ?;
+//      Gets a page of open reorder requests, or of their totals per product or per store, for signed-in vendor
 // 05: SELECT 1 FROM REORDER_REQUEST WHERE UPC_14 = SUPPLIED_UPC14 AND SHIPMENT_DATE IS NULL AND VENDOR_ID = SUPPLIED_ID;
 //      Checks to see if a reorder requests for signed-in vendor exists for a product with a given id
 // 06: SELECT 1 FROM REORDER_REQUEST WHERE REQUEST_ID = SUPPLIED_ID AND SHIPMENT_DATE IS NULL AND VENDOR_ID = SUPPLIED_ID;
@@ -33,39 +35,63 @@ import java.util.ArrayList;
  */
 public class VendorAccess {
 
+    // Rows per page of the vendor reports
+    static final int REPORT_PAGE = 20;
+
+    // Open requests of a vendor are found through IDX_REORDER_VENDOR(VENDOR_ID, SHIPMENT_DATE, UPC_14),
+    // every query is checked for an index by SchemaManager
+    public static final String SUMMARY_SQL =
+        "SELECT S.*, R.STORE_ID, R.UPC_14, R.QUANTITY FROM " +
+        "(SELECT COUNT(*) AS REQUESTS, SUM(QUANTITY) AS UNITS, COUNT(DISTINCT STORE_ID) AS STORES, " +
+        "COUNT(DISTINCT UPC_14) AS PRODUCTS, MIN(REQUEST_ID) AS OLDEST FROM REORDER_REQUEST " +
+        "WHERE VENDOR_ID = ? AND SHIPMENT_DATE IS NULL) S " +
+        "LEFT JOIN REORDER_REQUEST R ON R.REQUEST_ID = S.OLDEST;";
+    public static final String REQUESTS_SQL =
+        "SELECT REQUEST_ID, STORE_ID, UPC_14, QUANTITY FROM REORDER_REQUEST " +
+        "WHERE VENDOR_ID = ? AND SHIPMENT_DATE IS NULL ORDER BY REQUEST_ID LIMIT ? OFFSET ?;";
+    public static final String PRODUCTS_SQL =
+        "SELECT UPC_14, COUNT(*), COUNT(DISTINCT STORE_ID), SUM(QUANTITY) AS UNITS, MIN(REQUEST_ID) " +
+        "FROM REORDER_REQUEST WHERE VENDOR_ID = ? AND SHIPMENT_DATE IS NULL " +
+        "GROUP BY UPC_14 ORDER BY UNITS DESC, UPC_14 LIMIT ? OFFSET ?;";
+    public static final String STORES_SQL =
+        "SELECT STORE_ID, COUNT(*), COUNT(DISTINCT UPC_14), SUM(QUANTITY) AS UNITS, MIN(REQUEST_ID) " +
+        "FROM REORDER_REQUEST WHERE VENDOR_ID = ? AND SHIPMENT_DATE IS NULL " +
+        "GROUP BY STORE_ID ORDER BY UNITS DESC, STORE_ID LIMIT ? OFFSET ?;";
+    // UPC_14 is bound as a string, an unquoted literal would be compared as a number and skip the index
+    public static final String PRODUCT_REQUESTS_SQL =
+        "SELECT REQUEST_ID, STORE_ID, QUANTITY FROM REORDER_REQUEST WHERE UPC_14 = ?" +
+        " AND SHIPMENT_DATE IS NULL AND VENDOR_ID = ? ORDER BY REQUEST_ID;";
+    public static final String PRODUCT_REORDER_EXISTS_SQL =
+        "SELECT 1 FROM REORDER_REQUEST WHERE UPC_14 = ? AND SHIPMENT_DATE IS NULL AND VENDOR_ID = ?;";
+    public static final String REORDER_EXISTS_SQL =
+        "SELECT 1 FROM REORDER_REQUEST WHERE REQUEST_ID = ? AND SHIPMENT_DATE IS NULL AND VENDOR_ID = ?;";
+    public static final String SHIPMENT_SQL = "UPDATE REORDER_REQUEST SET SHIPMENT_DATE = ? WHERE REQUEST_ID = ?;";
+    public static final String VENDOR_EXISTS_SQL = "SELECT 1 FROM VENDORS WHERE VENDOR_ID = ?;";
+
+    /**
+     * Formats one row of a vendor report.
+     */
+    private interface Line {
+        String format(ResultSet res) throws SQLException;
+    }
+
     class Access{
 
         private String vendorID;
 
+        // Report buffer, printed once per command and reused across commands
+        private final StringBuilder report = new StringBuilder(4096);
+
         public Access(String VendorID) {
             this.vendorID = VendorID;
         }
 
         /**
-         * Show a vendor all open reorder requests and handle their interactions
+         * Show a vendor the summary of their open reorder requests and handle their interactions
          *
          */
         public void mainVendorAccess() {
-            System.out.println("Open Reorder Requests:");
-
-            String query = "SELECT * FROM REORDER_REQUEST WHERE VENDOR_ID = " + vendorID +
-                    " AND SHIPMENT_DATE IS NULL;";
-
-            try {
-                Statement stmt = conn.createStatement();
-                ResultSet res = stmt.executeQuery(query);
-                while (res.next()) {
-                    int requestID = res.getInt("REQUEST_ID");
-                    String upc_14 = res.getString("UPC_14");
-                    int store = res.getInt("STORE_ID");
-                    int quantity = res.getInt("QUANTITY");
-                    System.out.println("\tRequest ID: " + requestID +
-                            "\n\tProduct ID: " + upc_14 + "\n\tStore: " + store +
-                            "\n\tQuantity: " + quantity + "\n");
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+            printSummary();
 
             System.out.println("Commands:");
             showVendorCommands();
@@ -151,30 +177,27 @@ public class VendorAccess {
                                 Integer.parseInt(inputDate[1]));
                         break;
                     }
-                    case "all": {
-                        // See all open reorder requests for signed-in vendor
-                        System.out.println("Open Reorder Requests:");
-
-                        String inner_query = "SELECT * FROM REORDER_REQUEST WHERE VENDOR_ID = " + vendorID +
-                                " AND SHIPMENT_DATE IS NULL;";
-
-                        try {
-                            Statement stmt = conn.createStatement();
-                            ResultSet res = stmt.executeQuery(inner_query);
-                            while (res.next()) {
-                                int requestID = res.getInt("REQUEST_ID");
-                                String upc_14 = res.getString("UPC_14");
-                                int store = res.getInt("STORE_ID");
-                                int quantity = res.getInt("QUANTITY");
-                                System.out.println("\tRequest ID: " + requestID +
-                                        "\n\tProduct ID: " + upc_14 + "\n\tStore: " + store +
-                                        "\n\tQuantity: " + quantity + "\n");
-                            }
-                        } catch (SQLException e) {
-                            e.printStackTrace();
+                    case "all":
+                    case "products":
+                    case "stores": {
+                        // See a page of open reorder requests or of their totals for signed-in vendor
+                        int page = page(userInptVals);
+                        if (page < 1) {
+                            System.out.println("Expected '" + userInptVals[0] + " [page]'");
+                        } else if (userInptVals[0].equals("all")) {
+                            printOpenRequests(page);
+                        } else if (userInptVals[0].equals("products")) {
+                            printProductTotals(page);
+                        } else {
+                            printStoreTotals(page);
                         }
                         break;
                     }
+                    case "summary": {
+                        // See the totals of open reorder requests for signed-in vendor
+                        printSummary();
+                        break;
+                    }
                     case "help": {
                         // Get a list of instructions
                         showVendorCommands();
@@ -195,13 +218,144 @@ public class VendorAccess {
 
         }
 
+        /**
+         * Prints the signed-in vendor's open reorder requests summed up in one query: the
+         * number of requests, units, stores and products, and the oldest request. Request
+         * IDs are handed out in order, the oldest open request is the lowest open ID.
+         */
+        void printSummary() {
+            report.setLength(0);
+
+            try (PreparedStatement pstmt = conn.prepareStatement(SUMMARY_SQL)) {
+                pstmt.setInt(1, Integer.parseInt(vendorID));
+
+                try (ResultSet res = pstmt.executeQuery()) {
+                    res.next();
+                    report.append("Open Reorder Requests: ").append(res.getInt(1))
+                          .append("\n\tUnits: ").append(res.getLong(2))
+                          .append("\n\tStores: ").append(res.getInt(3))
+                          .append("\n\tProducts: ").append(res.getInt(4)).append('\n');
+
+                    if (res.getInt(1) > 0) {
+                        report.append("\tOldest: Request ").append(res.getInt(5))
+                              .append(", store ").append(res.getInt(6))
+                              .append(", product ").append(res.getString(7))
+                              .append(", quantity ").append(res.getInt(8)).append('\n');
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
+            System.out.print(report);
+        }
+
+        /**
+         * Prints the first page of the signed-in vendor's open reorder requests
+         */
+        void printOpenRequests() {
+            printOpenRequests(1);
+        }
+
+        /**
+         * Prints one page of the signed-in vendor's open reorder requests, oldest first,
+         * one line per request.
+         *
+         * @param page The page, starting at 1
+         */
+        void printOpenRequests(int page) {
+            printPage(REQUESTS_SQL, page, "all", "Request  Store  Product         Quantity",
+                    (res) -> String.format("%7d  %5d  %s  %8d", res.getInt(1), res.getInt(2),
+                            res.getString(3), res.getInt(4)));
+        }
+
+        /**
+         * Prints one page of the signed-in vendor's open units per product, most units first
+         *
+         * @param page The page, starting at 1
+         */
+        void printProductTotals(int page) {
+            printPage(PRODUCTS_SQL, page, "products", "Product         Requests  Stores     Units  Oldest",
+                    (res) -> String.format("%s  %8d  %6d  %8d  %6d", res.getString(1), res.getInt(2),
+                            res.getInt(3), res.getLong(4), res.getInt(5)));
+        }
+
+        /**
+         * Prints one page of the signed-in vendor's open units per store, most units first
+         *
+         * @param page The page, starting at 1
+         */
+        void printStoreTotals(int page) {
+            printPage(STORES_SQL, page, "stores", "Store  Requests  Products     Units  Oldest",
+                    (res) -> String.format("%5d  %8d  %8d  %8d  %6d", res.getInt(1), res.getInt(2),
+                            res.getInt(3), res.getLong(4), res.getInt(5)));
+        }
+
+        /**
+         * Runs a paged report query for the signed-in vendor and prints the page at once.
+         * One row past the page is read to tell whether another page follows.
+         *
+         * @param query Query taking the vendor, a limit and an offset
+         * @param page The page, starting at 1
+         * @param command Command showing the report, for the next page hint
+         * @param header Column titles
+         * @param line Formats one row
+         */
+        private void printPage(String query, int page, String command, String header, Line line) {
+            report.setLength(0);
+            report.append("Page ").append(page).append("\n\t").append(header).append('\n');
+
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setInt(1, Integer.parseInt(vendorID));
+                pstmt.setInt(2, REPORT_PAGE + 1);
+                pstmt.setLong(3, (long) (page - 1) * REPORT_PAGE);
+                pstmt.setFetchSize(REPORT_PAGE + 1);
+
+                int rows = 0;
+                try (ResultSet res = pstmt.executeQuery()) {
+                    while (res.next()) {
+                        if (++rows > REPORT_PAGE) break;
+                        report.append('\t').append(line.format(res)).append('\n');
+                    }
+                }
+
+                if (rows == 0) {
+                    report.append("\tNo open reorder requests\n");
+                } else if (rows > REPORT_PAGE) {
+                    report.append("'").append(command).append(' ').append(page + 1).append("' - Next page\n");
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
+            System.out.print(report);
+        }
+
+        /**
+         * @param userInptVals A report command and its optional page
+         * @return The page asked for, 1 without one, 0 if it is not a number
+         */
+        private int page(String[] userInptVals) {
+            if (userInptVals.length == 1) return 1;
+            if (userInptVals.length > 2) return 0;
+
+            try {
+                return Integer.parseInt(userInptVals[1]);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
         /**
          * Displays listing and description of commands to the user.
          */
         private void showVendorCommands() {
             System.out.println("    '1 <Product_ID>' - Search a product");
             System.out.println("    'shipment' - Enter a shipment");
-            System.out.println("    'all' - See all open reorder requests");
+            System.out.println("    'summary' - Totals of open reorder requests");
+            System.out.println("    'products [page]' - Open units per product");
+            System.out.println("    'stores [page]' - Open units per store");
+            System.out.println("    'all [page]' - See open reorder requests");
             System.out.println("    'help' - Instructions");
             System.out.println("    'exit' - Exit");
         }
@@ -236,8 +390,7 @@ public class VendorAccess {
                         cal.set(year, month-1, day);
                         Timestamp timestamp = new java.sql.Timestamp(cal.getTimeInMillis());
                         try {
-                            PreparedStatement pstmt = conn.prepareStatement(
-                                    "UPDATE REORDER_REQUEST SET SHIPMENT_DATE = ? WHERE REQUEST_ID = ?;");
+                            PreparedStatement pstmt = conn.prepareStatement(SHIPMENT_SQL);
 
                             pstmt.setTimestamp(1, timestamp);
                             pstmt.setInt(2, Integer.parseInt(userInpt));
@@ -260,32 +413,32 @@ public class VendorAccess {
          * @param upc14 The id of the product to print requests for
          */
         public void requestsForProduct(String upc14) {
-            System.out.println("Product ID: " + upc14);
-
-            String query1 = "SELECT * FROM REORDER_REQUEST WHERE UPC_14 = " + upc14 + " AND SHIPMENT_DATE IS NULL" +
-                    " AND VENDOR_ID = " + vendorID + ";";
-            String query2 = "SELECT COUNT(REQUEST_ID) FROM REORDER_REQUEST WHERE UPC_14 = " + upc14 +
-                    " AND SHIPMENT_DATE IS NULL AND VENDOR_ID = " + vendorID + ";";
-
-            try {
-                Statement stmt1 = conn.createStatement();
-                ResultSet res1 = stmt1.executeQuery(query1);
-                Statement stmt2 = conn.createStatement();
-                ResultSet res2 = stmt2.executeQuery(query2);
-                if (res2.next()) {
-                    int count = res2.getInt("COUNT(REQUEST_ID)");
-                    System.out.println("Open Requests: " + count);
-                }
-                while (res1.next()) {
-                    int requestID = res1.getInt("REQUEST_ID");
-                    int store = res1.getInt("STORE_ID");
-                    int quantity = res1.getInt("QUANTITY");
-                    System.out.println("\tRequest ID: " + requestID + "\n\tStore: " + store +
-                            "\n\tQuantity: " + quantity + "\n");
+            report.setLength(0);
+            report.append("Product ID: ").append(upc14).append('\n');
+
+            try (PreparedStatement pstmt = conn.prepareStatement(PRODUCT_REQUESTS_SQL)) {
+                pstmt.setString(1, upc14);
+                pstmt.setInt(2, Integer.parseInt(vendorID));
+
+                int count = 0;
+                long units = 0;
+                int header = report.length();
+
+                report.append("\tRequest  Store  Quantity\n");
+                try (ResultSet res = pstmt.executeQuery()) {
+                    while (res.next()) {
+                        count++;
+                        units += res.getInt(3);
+                        report.append(String.format("\t%7d  %5d  %8d\n", res.getInt(1), res.getInt(2), res.getInt(3)));
+                    }
                 }
+
+                report.insert(header, "Open Requests: " + count + ", Units: " + units + "\n");
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+
+            System.out.print(report);
         }
 
         /**
@@ -295,20 +448,20 @@ public class VendorAccess {
          * @return True if a request is found, False otherwise
          */
         private Boolean productReorderExists(String productID) {
-            String query = "SELECT 1 FROM REORDER_REQUEST WHERE UPC_14 = " + productID + " AND SHIPMENT_DATE IS NULL" +
-                    " AND VENDOR_ID = " + vendorID + ";";
-            int nrows = 0;
+            boolean found = false;
 
             try {
-                Statement stmt = conn.createStatement();
-                ResultSet res = stmt.executeQuery(query);
-                res.last();
-                nrows = res.getRow();
+                PreparedStatement pstmt = conn.prepareStatement(PRODUCT_REORDER_EXISTS_SQL);
+
+                pstmt.setString(1, productID);
+                pstmt.setInt(2, Integer.parseInt(vendorID));
+                ResultSet res = pstmt.executeQuery();
+                found = res.next();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
 
-            return nrows == 1;
+            return found;
         }
 
         /**
@@ -318,35 +471,38 @@ public class VendorAccess {
          * @return True if request is found, False otherwise
          */
         private Boolean reorderExists(String requestID) {
-            String query = "SELECT 1 FROM REORDER_REQUEST WHERE REQUEST_ID = " + requestID +
-                    " AND SHIPMENT_DATE IS NULL AND VENDOR_ID = " + vendorID + ";";
-            int nrows = 0;
+            boolean found = false;
 
             try {
-                Statement stmt = conn.createStatement();
-                ResultSet res = stmt.executeQuery(query);
-                res.last();
-                nrows = res.getRow();
+                PreparedStatement pstmt = conn.prepareStatement(REORDER_EXISTS_SQL);
+
+                pstmt.setInt(1, Integer.parseInt(requestID));
+                pstmt.setInt(2, Integer.parseInt(vendorID));
+                ResultSet res = pstmt.executeQuery();
+                found = res.next();
+            } catch (NumberFormatException e) {
+                return false;
             } catch (SQLException e) {
                 e.printStackTrace();
             }
 
-            return nrows == 1;
+            return found;
         }
     }
 
     Scanner in;
+    ConnectionPool pool;
     Connection conn;
 
     public VendorAccess(String location,
                         String user,
                         String password) {
 
-        String url = "jdbc:h2:" + location + ";IFEXISTS=TRUE";
+        this.pool = new ConnectionPool(location + ";IFEXISTS=TRUE", user, password, 1);
 
         try {
-            this.conn = DriverManager.getConnection(url, user, password);
-            System.out.println("Connected: " + url);
+            this.conn = pool.borrow();
+            System.out.println("Connected: " + pool.getUrl());
         } catch (SQLException e) {
             e.printStackTrace();
             System.exit(1);
@@ -359,11 +515,8 @@ public class VendorAccess {
      * Used on program exit, closes the database.
      */
     public void closeConnection() {
-        try {
-            conn.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        pool.release(conn);
+        pool.close();
     }
 
     /**
@@ -425,20 +578,22 @@ public class VendorAccess {
      */
     private Boolean vendorExists(String vendorID) {
 
-        String query = "SELECT 1 FROM VENDORS WHERE VENDOR_ID = " + vendorID + ";";
-        int nrows = 0;
+        boolean found = false;
 
         try {
-            Statement stmt = conn.createStatement();
-            ResultSet res = stmt.executeQuery(query);
-            res.last();
-            nrows = res.getRow();
+            PreparedStatement pstmt = conn.prepareStatement(VENDOR_EXISTS_SQL);
+
+            pstmt.setInt(1, Integer.parseInt(vendorID));
+            ResultSet res = pstmt.executeQuery();
+            found = res.next();
 
+        } catch (NumberFormatException e) {
+            return false;
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
-        return nrows == 1;
+        return found;
     }
 
     /**
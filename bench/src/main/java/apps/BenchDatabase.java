@@ -0,0 +1,121 @@
+package apps;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import database.DataSeeder;
+
+/**
+ * Seeded database shared by the benchmarks. Each scale is generated once under
+ * bench.dir (default target/bench) and reused by later forks and runs, delete the
+ * directory to regenerate it. Benchmarks that write to the database work on a
+ * copy made per trial, so the seeded one never changes.
+ */
+final class BenchDatabase {
+
+    static final long SEED = 42;
+
+    private BenchDatabase(){
+    }
+
+    /**
+     * @param scale The dataset scale
+     * @return Location of the seeded database, generated on first use
+     */
+    static synchronized String location(int scale) throws Exception {
+        File dir = new File(System.getProperty("bench.dir", "target/bench"), "scale-" + scale);
+        File db = new File(dir, "database/db.mv.db");
+
+        if(!db.exists()){
+            new DataSeeder(scale, SEED).seed(dir.getPath(), Runtime.getRuntime().availableProcessors());
+        }
+
+        return new File(dir, "database/db").getAbsolutePath();
+    }
+
+    /**
+     * Copies the seeded database of a scale over the previous copy of a benchmark.
+     *
+     * @param scale The dataset scale
+     * @param name The benchmark writing to the copy
+     * @return Location of the copy
+     */
+    static synchronized String copy(int scale, String name) throws Exception {
+        File seeded = new File(location(scale) + ".mv.db");
+        File dir = new File(System.getProperty("bench.dir", "target/bench"), "scale-" + scale + "-" + name + "/database");
+
+        // Also drops the journal and trace files of the last trial
+        dir.mkdirs();
+        File[] old = dir.listFiles();
+        if(old != null){
+            for(File file : old) file.delete();
+        }
+
+        Files.copy(seeded.toPath(), new File(dir, "db.mv.db").toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        return new File(dir, "db").getAbsolutePath();
+    }
+
+    /**
+     * @param location The database
+     * @return A connection for benchmark setup, outside of the apps' pools
+     */
+    static Connection connect(String location) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:" + location, "user", "password");
+    }
+
+    /**
+     * Picks products a store carries, at most one per basket line.
+     *
+     * @param conn Setup connection
+     * @param storeID The store
+     * @param limit Largest number of products returned
+     * @return upc14 codes in key order
+     */
+    static List<String> products(Connection conn, int storeID, int limit) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(
+        "SELECT UPC14 FROM PROD_STORE WHERE STORE_ID = ? ORDER BY UPC14 LIMIT ?;");
+        pstmt.setInt(1, storeID);
+        pstmt.setInt(2, limit);
+
+        List<String> upcs = new ArrayList<String>();
+        ResultSet res = pstmt.executeQuery();
+        while(res.next()){
+            upcs.add(res.getString(1));
+        }
+
+        return upcs;
+    }
+
+    /**
+     * Sends the apps' console output nowhere, so the benchmarks measure the queries
+     * and formatting rather than the terminal.
+     *
+     * @return The previous System.out, to be restored on tear down
+     */
+    static PrintStream mute(){
+        PrintStream previous = System.out;
+
+        System.setOut(new PrintStream(new OutputStream(){
+            @Override
+            public void write(int b){
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len){
+            }
+        }));
+
+        return previous;
+    }
+}
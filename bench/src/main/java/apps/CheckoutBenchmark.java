@@ -0,0 +1,108 @@
+package apps;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import database.DataSeeder;
+
+/**
+ * Checkout commit and receipt printing through CounterPoint.Checkout, over
+ * baskets drawn from the products each store carries. Commits take stock, so
+ * every trial starts from a fresh copy of the seeded database.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CheckoutBenchmark {
+
+    /**
+     * Baskets generated per trial, replayed round robin.
+     */
+    static final int BASKETS = 512;
+
+    static final int MAX_LINES = 8;
+
+    @Param({"1"})
+    int scale;
+
+    private PrintStream out;
+    private CounterPoint point;
+    private final List<String[][]> baskets = new ArrayList<String[][]>();
+    private final List<CounterPoint.Checkout> receipts = new ArrayList<CounterPoint.Checkout>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String location = BenchDatabase.copy(scale, "checkout");
+        DataSeeder seeder = new DataSeeder(scale, BenchDatabase.SEED);
+        Random rand = new Random(BenchDatabase.SEED);
+
+        out = BenchDatabase.mute();
+        point = new CounterPoint(location, "user", "password");
+
+        try(Connection conn = BenchDatabase.connect(location)){
+            for(int b = 0; b < BASKETS; b++){
+                int storeID = 1 + rand.nextInt(seeder.stores());
+                List<String> products = BenchDatabase.products(conn, storeID, 200);
+
+                // First row: store, customer, then one upc14 and quantity per line
+                String[][] basket = new String[1 + 1 + rand.nextInt(MAX_LINES)][];
+                basket[0] = new String[]{String.valueOf(storeID), String.valueOf(1 + rand.nextInt(seeder.customers()))};
+                for(int l = 1; l < basket.length; l++){
+                    basket[l] = new String[]{products.get(rand.nextInt(products.size())), "1"};
+                }
+                baskets.add(basket);
+            }
+        }
+
+        // Receipts are printed from corrected but never entered baskets
+        for(String[][] basket : baskets){
+            CounterPoint.Checkout checkout = fill(basket);
+            checkout.correctItems();
+            receipts.add(checkout);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        point.closeConnection();
+        System.setOut(out);
+    }
+
+    private CounterPoint.Checkout fill(String[][] basket){
+        CounterPoint.Checkout checkout = point.new Checkout(basket[0][0], basket[0][1]);
+        for(int l = 1; l < basket.length; l++){
+            checkout.addItem(basket[l][0], Integer.parseInt(basket[l][1]));
+        }
+
+        return checkout;
+    }
+
+    /**
+     * Prices, stock checks and commits one basket.
+     */
+    @Benchmark
+    public Boolean checkoutCommit(){
+        CounterPoint.Checkout checkout = fill(baskets.get(next++ % BASKETS));
+        checkout.correctItems();
+
+        return checkout.enterTransaction();
+    }
+
+    /**
+     * Prints the receipt of one basket.
+     */
+    @Benchmark
+    public void printReceipt(){
+        receipts.get(next++ % BASKETS).printReceipt();
+    }
+}
@@ -0,0 +1,70 @@
+package apps;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import database.DataSeeder;
+
+/**
+ * Transaction history and most sold product queries of CustomerApp.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerBenchmark {
+
+    @Param({"1"})
+    int scale;
+
+    private PrintStream out;
+    private CustomerApp customerApp;
+    private int customers;
+    private int stores;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String location = BenchDatabase.location(scale);
+        DataSeeder seeder = new DataSeeder(scale, BenchDatabase.SEED);
+        customers = seeder.customers();
+        stores = seeder.stores();
+
+        out = BenchDatabase.mute();
+        customerApp = new CustomerApp(location, "user", "password");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        customerApp.closeConnection();
+        System.setOut(out);
+    }
+
+    /**
+     * Prints one customer's transaction history.
+     */
+    @Benchmark
+    public void customerHistory(){
+        customerApp.retrieveCustomerTransactions(String.valueOf(next++ % customers + 1), CustomerApp.HISTORY_PAGE);
+    }
+
+    /**
+     * Finds the most sold product of one store.
+     */
+    @Benchmark
+    public void mostSoldProduct(){
+        customerApp.retrieveMostSoldProduct(String.valueOf(next++ % stores + 1), 0, 1);
+    }
+
+    /**
+     * Lists the ten best sellers of one store over the last week.
+     */
+    @Benchmark
+    public void topSellersWeek(){
+        customerApp.retrieveMostSoldProduct(String.valueOf(next++ % stores + 1), 7, 10);
+    }
+}
@@ -0,0 +1,76 @@
+package apps;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import database.DataSeeder;
+
+/**
+ * CounterPoint.Restock.restockAll over a store with a fixed number of shipped
+ * requests, inserted again before every invocation. Restocks add stock, so every
+ * trial starts from a fresh copy of the seeded database.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RestockBenchmark {
+
+    @Param({"1"})
+    int scale;
+
+    @Param({"20"})
+    int requests;
+
+    private PrintStream out;
+    private CounterPoint point;
+    private Connection setupConn;
+    private PreparedStatement insert;
+    private int stores;
+    private int storeID;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String location = BenchDatabase.copy(scale, "restock");
+        stores = new DataSeeder(scale, BenchDatabase.SEED).stores();
+
+        out = BenchDatabase.mute();
+        point = new CounterPoint(location, "user", "password");
+
+        setupConn = BenchDatabase.connect(location);
+        insert = setupConn.prepareStatement(
+        "INSERT INTO REORDER_REQUEST(SHIPMENT_DATE, STORE_ID, VENDOR_ID, UPC_14, QUANTITY) " +
+        "SELECT DATEADD('DAY', -1, CURRENT_TIMESTAMP), STORE_ID, NULL, UPC14, 5 FROM PROD_STORE " +
+        "WHERE STORE_ID = ? LIMIT ?;");
+    }
+
+    @Setup(Level.Invocation)
+    public void ship() throws Exception {
+        storeID = storeID % stores + 1;
+
+        insert.setInt(1, storeID);
+        insert.setInt(2, requests);
+        insert.executeUpdate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        setupConn.close();
+        point.closeConnection();
+        System.setOut(out);
+    }
+
+    /**
+     * Applies and closes every shipped request of one store.
+     */
+    @Benchmark
+    public void restockAll(){
+        point.new Restock(String.valueOf(storeID)).restockAll();
+    }
+}
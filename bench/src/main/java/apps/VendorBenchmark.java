@@ -0,0 +1,56 @@
+package apps;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import database.DataSeeder;
+
+/**
+ * Open reorder request listing of VendorAccess, rotating over every vendor.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VendorBenchmark {
+
+    @Param({"1"})
+    int scale;
+
+    private PrintStream out;
+    private VendorAccess vendorApp;
+    private VendorAccess.Access[] vendors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String location = BenchDatabase.location(scale);
+        int count = new DataSeeder(scale, BenchDatabase.SEED).vendors();
+
+        out = BenchDatabase.mute();
+        vendorApp = new VendorAccess(location, "user", "password");
+
+        vendors = new VendorAccess.Access[count];
+        for(int v = 0; v < count; v++){
+            vendors[v] = vendorApp.new Access(String.valueOf(v + 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        vendorApp.closeConnection();
+        System.setOut(out);
+    }
+
+    /**
+     * Lists the open requests of one vendor.
+     */
+    @Benchmark
+    public void openRequests(){
+        vendors[next++ % vendors.length].printOpenRequests();
+    }
+}
@@ -0,0 +1,277 @@
+package database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Generates a synthetic dataset in the layout of ./data, scaled by a factor, and
+ * builds a database from it with the BulkLoader, the schema step and triggers.
+ *
+ * Like aux_scripts/product_store_gen.r every store carries a random share of the
+ * catalog with random inventory and prices, and on top of that the customers,
+ * transactions and reorder requests are generated as well. The output only
+ * depends on the scale and the seed.
+ */
+public class DataSeeder {
+
+    public static final int STORES = 20;
+    public static final int CUSTOMERS = 2000;
+    public static final int BRANDS = 400;
+    public static final int VENDORS = 10;
+    public static final int PRODUCTS_PER_TABLE = 1000;
+    public static final int TRANSACTIONS = 20000;
+
+    private static final int MAX_PRICE = 50;
+    private static final int MAX_INV = 1000;
+    private static final int MAX_LINES = 6;
+    private static final int HISTORY_DAYS = 90;
+
+    private static final String[] FIRST = {"Bryan", "Barry", "Alice", "Maria", "John", "Wei", "Priya", "Sam"};
+    private static final String[] LAST = {"Passino", "French", "Smith", "Garcia", "Chen", "Patel", "Jones", "Kim"};
+    private static final String[] CITIES = {"Rogers,AR", "Harrison,AR", "Rochester,NY", "Albany,NY", "Austin,TX"};
+    private static final String[] STORAGE = {"Shelf", "Chilled", "Frozen"};
+
+    private final int scale;
+    private final Random rand;
+    private final SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    // upc14 of every product, by table enum
+    private final String[][] upcs = new String[4][];
+    // brand of every product, by table enum
+    private final int[][] brands = new int[4][];
+
+    /**
+     * DataSeeder constructor
+     *
+     * @param scale Multiplier applied to every row count
+     * @param seed Random seed
+     */
+    public DataSeeder(int scale, long seed){
+        this.scale = Math.max(1, scale);
+        this.rand = new Random(seed);
+    }
+
+    public int stores(){
+        return STORES * scale;
+    }
+
+    public int customers(){
+        return CUSTOMERS * scale;
+    }
+
+    public int vendors(){
+        return VENDORS * scale;
+    }
+
+    /**
+     * Writes the csv files and builds the database from them.
+     *
+     * @param dir Directory receiving data/ and database/db
+     * @param threads Tables loaded at once
+     * @return Location of the database, as given to the apps
+     */
+    public String seed(String dir, int threads) throws Exception {
+        File dataDir = new File(dir, "data");
+        dataDir.mkdirs();
+
+        long start = System.nanoTime();
+        writeCsv(dataDir);
+        System.out.printf("Generated scale %d in %.2fs\n", scale, (System.nanoTime() - start) / 1e9);
+
+        String location = new File(dir, "database/db").getAbsolutePath();
+
+        // MainDatabase's table definitions, read from the generated files
+        String[][] tables = new String[MainDatabase.TABLES.length][];
+        for(int i = 0; i < tables.length; i++){
+            String[] table = MainDatabase.TABLES[i];
+            tables[i] = new String[]{table[0], table[1].replace("./data", dataDir.getPath()), table[2]};
+        }
+
+        new BulkLoader(location, "user", "password", threads).load(tables, MainDatabase.FOREIGN_KEYS);
+
+        try(Connection conn = DriverManager.getConnection("jdbc:h2:" + location, "user", "password")){
+            new SchemaManager(conn).apply();
+        }
+
+        MainDatabase mainDB = new MainDatabase(location, "user", "password");
+        mainDB.addTriggers();
+        mainDB.closeConnection();
+
+        return location;
+    }
+
+    private void writeCsv(File dataDir) throws IOException {
+        try(BufferedWriter out = writer(dataDir, "stores.csv")){
+            out.write("Store_ID,Address,City,State,Zip\n");
+            for(int s = 1; s <= stores(); s++){
+                out.write(s + "," + (100 + rand.nextInt(9900)) + " MAIN ST," + CITIES[rand.nextInt(CITIES.length)] +
+                          "," + String.format("%05d", rand.nextInt(100000)) + "\n");
+            }
+        }
+
+        try(BufferedWriter out = writer(dataDir, "customer.csv")){
+            out.write("Customer_ID, FirstName, LastName, Phone\n");
+            for(int c = 1; c <= customers(); c++){
+                out.write(String.format("%04d, %s, %s, (%03d)%03d-%04d\n", c, FIRST[rand.nextInt(FIRST.length)],
+                          LAST[rand.nextInt(LAST.length)], rand.nextInt(1000), rand.nextInt(1000), rand.nextInt(10000)));
+            }
+        }
+
+        int brandCount = BRANDS * scale;
+        try(BufferedWriter out = writer(dataDir, "brands.csv")){
+            out.write("brand_id,Name,No_of_items,Manufacturer\n");
+            for(int b = 1; b <= brandCount; b++){
+                out.write(b + ",Brand " + b + "," + rand.nextInt(5000) + ",\"Maker " + (b % 50) + ", Inc.\"\n");
+            }
+        }
+
+        try(BufferedWriter out = writer(dataDir, "vendors.csv")){
+            out.write("vendor_id,name\n");
+            for(int v = 1; v <= vendors(); v++){
+                out.write(v + ",Vendor " + v + " Dist\n");
+            }
+        }
+
+        // Every brand has a distributor, every fifth brand a second one
+        try(BufferedWriter out = writer(dataDir, "brand_distribution.csv")){
+            out.write("vendor_id,brand_id\n");
+            for(int b = 1; b <= brandCount; b++){
+                int vendor = vendorOf(b);
+                out.write(vendor + "," + b + "\n");
+                if(b % 5 == 0) out.write((vendor % vendors() + 1) + "," + b + "\n");
+            }
+        }
+
+        String[] files = {"items.csv", "foods.csv", "beverage.csv", "pharma.csv"};
+        String[] headers = {
+            "upc14,brand_id,name",
+            "upc14,brand_id,name,calories,storage,allergens,weight",
+            "upc14,brand_id,name,calories,storage,allergens,weight,alcoholic",
+            "upc14,brand_id,name,otc"
+        };
+
+        int products = PRODUCTS_PER_TABLE * scale;
+        for(int t = 0; t < 4; t++){
+            upcs[t] = new String[products];
+            brands[t] = new int[products];
+
+            try(BufferedWriter out = writer(dataDir, files[t])){
+                out.write(headers[t] + "\n");
+                for(int i = 0; i < products; i++){
+                    // Table enum in the leading digits keeps the four tables disjoint
+                    upcs[t][i] = String.format("%014d", (t + 1) * 1000000000000L + i + 1);
+                    brands[t][i] = 1 + rand.nextInt(brandCount);
+
+                    out.write(upcs[t][i] + "," + brands[t][i] + ",Product " + t + "-" + i);
+                    if(t == 1 || t == 2){
+                        out.write("," + rand.nextInt(500) + "," + STORAGE[rand.nextInt(STORAGE.length)] + "," +
+                                  (rand.nextInt(4) == 0 ? "Nuts" : "") + "," + (1 + rand.nextInt(500)));
+                    }
+                    if(t == 2) out.write(rand.nextBoolean() ? ",TRUE" : ",FALSE");
+                    if(t == 3) out.write(rand.nextBoolean() ? ",TRUE" : ",FALSE");
+                    out.write("\n");
+                }
+            }
+        }
+
+        // Catalog of each store as (table enum, product index) pairs
+        int[][] carried = new int[stores() + 1][];
+
+        try(BufferedWriter out = writer(dataDir, "prod_store.csv")){
+            out.write("upc14,tbl_enum,store_id,inventory,price\n");
+            for(int s = 1; s <= stores(); s++){
+                double share = 0.25 + rand.nextDouble() * 0.75;
+                int[] picks = new int[4 * products];
+                int n = 0;
+
+                for(int t = 0; t < 4; t++){
+                    for(int i = 0; i < products; i++){
+                        if(rand.nextDouble() >= share) continue;
+
+                        picks[n++] = t * products + i;
+                        out.write(upcs[t][i] + "," + t + "," + s + "," + (1 + rand.nextInt(MAX_INV)) + "," +
+                                  (1 + rand.nextInt(MAX_PRICE - 1)) + "." + String.format("%02d", rand.nextInt(100)) + "\n");
+                    }
+                }
+
+                carried[s] = new int[n];
+                System.arraycopy(picks, 0, carried[s], 0, n);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        int transactions = TRANSACTIONS * scale;
+
+        try(BufferedWriter trans = writer(dataDir, "transaction.csv");
+            BufferedWriter lines = writer(dataDir, "prod_transaction.csv")){
+
+            trans.write("Transaction_ID,TimeStamp,Store_ID,Customer_ID\n");
+            lines.write("Transaction_ID,upc14,quantity\n");
+
+            for(int id = 1; id <= transactions; id++){
+                int store = 1 + rand.nextInt(stores());
+                long time = now - (long) (rand.nextDouble() * HISTORY_DAYS * 86400000L);
+
+                trans.write(String.format("%09d", id) + "," + timestamp.format(new Date(time)) + "," + store + "," +
+                            String.format("%04d", 1 + rand.nextInt(customers())) + "\n");
+
+                int[] catalog = carried[store];
+                int count = 1 + rand.nextInt(Math.min(MAX_LINES, catalog.length));
+                int first = rand.nextInt(catalog.length);
+                for(int l = 0; l < count; l++){
+                    // Consecutive catalog entries keep the upc14s of a transaction distinct
+                    int p = catalog[(first + l) % catalog.length];
+                    lines.write(String.format("%09d", id) + "," + upcs[p / products][p % products] + "," +
+                                (1 + rand.nextInt(3)) + "\n");
+                }
+            }
+        }
+
+        // About 2% of each store's catalog has a request, one in four of them shipped
+        try(BufferedWriter out = writer(dataDir, "reorder_req.csv")){
+            out.write("request_ID,shipment_date,store_ID,vendor_ID,upc_14,quantity\n");
+            int id = 1;
+            for(int s = 1; s <= stores(); s++){
+                for(int p : carried[s]){
+                    if(rand.nextInt(50) != 0) continue;
+
+                    String shipped = rand.nextInt(4) == 0
+                        ? timestamp.format(new Date(now - rand.nextInt(7) * 86400000L)) : "";
+                    out.write(id++ + "," + shipped + "," + s + "," + vendorOf(brands[p / products][p % products]) + "," +
+                              upcs[p / products][p % products] + "," + (10 + rand.nextInt(190)) + "\n");
+                }
+            }
+        }
+    }
+
+    private int vendorOf(int brand){
+        return (brand - 1) % vendors() + 1;
+    }
+
+    private static BufferedWriter writer(File dir, String name) throws IOException {
+        return new BufferedWriter(new FileWriter(new File(dir, name)), 1 << 16);
+    }
+
+    /**
+     * Usage: java database.DataSeeder dir [scale] [seed]
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.out.println("Usage: java database.DataSeeder dir [scale] [seed]");
+            System.exit(1);
+        }
+
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        String location = new DataSeeder(scale, seed).seed(args[0], Runtime.getRuntime().availableProcessors());
+        System.out.println("Database: " + location);
+    }
+}
@@ -0,0 +1,247 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk load mode for MainDatabase. Every table is created empty, then the csv
+ * files are streamed through a CsvReader and inserted with batched prepared
+ * statements, independent tables loading in parallel on their own connection.
+ *
+ * Foreign keys are deferred until every table is filled, keys on different
+ * tables are added in parallel while keys on the same table run in order.
+ */
+public class BulkLoader {
+
+    /**
+     * Rows per executeBatch.
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    /**
+     * Rows per commit.
+     */
+    public static final int COMMIT_SIZE = 50000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int threads;
+
+    /**
+     * BulkLoader constructor
+     *
+     * @param location The location of the database
+     * @param user username
+     * @param password password for user
+     * @param threads Number of tables loaded at once
+     */
+    public BulkLoader(String location,
+                      String user,
+                      String password,
+                      int threads){
+
+        this.url = "jdbc:h2:" + location;
+        this.user = user;
+        this.password = password;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Creates, fills and constrains every table.
+     *
+     * @param tables Table definitions: name, csv path, field definitions
+     * @param foreignKeys Foreign keys: table, field, ref table, ref field
+     */
+    public void load(String[][] tables, String[][] foreignKeys) throws Exception {
+        long start = System.nanoTime();
+
+        try(Connection conn = DriverManager.getConnection(url, user, password);
+            Statement stmt = conn.createStatement()){
+
+            for(String[] table : tables){
+                String sql = "CREATE TABLE " + table[0] + "(" + table[2] + ");";
+                System.out.println(sql + "\n");
+                stmt.execute(sql);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try{
+            List<Future<?>> loads = new ArrayList<Future<?>>();
+            for(String[] table : tables){
+                loads.add(pool.submit(() -> {
+                    loadTable(table[0], table[1]);
+                    return null;
+                }));
+            }
+            waitAll(loads);
+
+            // Group keys by table, each group is added in order on one connection
+            Map<String, List<String[]>> byTable = new LinkedHashMap<String, List<String[]>>();
+            for(String[] fk : foreignKeys){
+                byTable.computeIfAbsent(fk[0], k -> new ArrayList<String[]>()).add(fk);
+            }
+
+            List<Future<?>> constraints = new ArrayList<Future<?>>();
+            for(List<String[]> group : byTable.values()){
+                constraints.add(pool.submit(() -> {
+                    addForeignKeys(group);
+                    return null;
+                }));
+            }
+            waitAll(constraints);
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("Bulk load finished in %.2fs\n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Streams one csv file into its table.
+     *
+     * @param tableName Name of the table to be filled
+     * @param csvPath Path to csv source file
+     */
+    private void loadTable(String tableName, String csvPath) throws Exception {
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try(Connection conn = DriverManager.getConnection(url, user, password);
+            CsvReader csv = new CsvReader(csvPath)){
+
+            conn.setAutoCommit(false);
+
+            int[] types = columnTypes(conn, tableName);
+
+            StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " VALUES(");
+            for(int i = 0; i < types.length; i++){
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(");");
+
+            PreparedStatement pstmt = conn.prepareStatement(sql.toString());
+
+            while(csv.next()){
+                bindRow(pstmt, csv, types);
+                pstmt.addBatch();
+                rows++;
+
+                if(rows % BATCH_SIZE == 0) pstmt.executeBatch();
+                if(rows % COMMIT_SIZE == 0) conn.commit();
+            }
+
+            pstmt.executeBatch();
+            conn.commit();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Loaded %-18s %10d rows %8.2fs %12.0f rows/s\n", tableName, rows, seconds, rows / seconds);
+    }
+
+    /**
+     * Binds the current csv record, integer columns are parsed straight from the
+     * record buffer, everything else is converted by the database.
+     *
+     * @param pstmt The insert statement
+     * @param csv The reader positioned on a record
+     * @param types The table's sql column types
+     */
+    static void bindRow(PreparedStatement pstmt, CsvReader csv, int[] types) throws SQLException {
+        for(int i = 0; i < types.length; i++){
+            bindField(pstmt, i + 1, csv, i, types[i]);
+        }
+    }
+
+    /**
+     * Binds one field of the current csv record.
+     *
+     * @param pstmt The statement
+     * @param param Parameter index, from 1
+     * @param csv The reader positioned on a record
+     * @param i Field index, from 0
+     * @param type The field's sql column type
+     */
+    static void bindField(PreparedStatement pstmt, int param, CsvReader csv, int i, int type) throws SQLException {
+        if(csv.isNull(i)){
+            pstmt.setNull(param, type);
+            return;
+        }
+
+        switch(type){
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.TINYINT: {
+                pstmt.setLong(param, csv.getLong(i));
+                break;
+            }
+            default: {
+                pstmt.setString(param, csv.getString(i));
+            }
+        }
+    }
+
+    /**
+     * @param conn The connection to the db
+     * @param tableName The table
+     * @return The sql type of every column in order
+     */
+    static int[] columnTypes(Connection conn, String tableName) throws SQLException {
+        try(Statement stmt = conn.createStatement();
+            ResultSet res = stmt.executeQuery("SELECT * FROM " + tableName + " LIMIT 0;")){
+
+            ResultSetMetaData metaData = res.getMetaData();
+            int[] types = new int[metaData.getColumnCount()];
+            for(int i = 0; i < types.length; i++){
+                types[i] = metaData.getColumnType(i + 1);
+            }
+
+            return types;
+        }
+    }
+
+    /**
+     * Adds a table's foreign keys one after another.
+     *
+     * @param group Foreign keys of a single table
+     */
+    private void addForeignKeys(List<String[]> group) throws SQLException {
+        try(Connection conn = DriverManager.getConnection(url, user, password);
+            Statement stmt = conn.createStatement()){
+
+            // Parents may be locked by another table's constraint check
+            stmt.execute("SET LOCK_TIMEOUT 60000;");
+
+            for(String[] fk : group){
+                long start = System.nanoTime();
+                stmt.execute("ALTER TABLE " + fk[0] + " ADD FOREIGN KEY (" + fk[1] + ") REFERENCES " +
+                             fk[2] + "(" + fk[3] + ");");
+
+                System.out.printf("Constraint %s(%s) -> %s(%s) %.2fs\n", fk[0], fk[1], fk[2], fk[3],
+                                  (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    static void waitAll(List<Future<?>> futures) throws Exception {
+        Exception failure = null;
+
+        for(Future<?> future : futures){
+            try{
+                future.get();
+            } catch(Exception e){
+                if(failure == null) failure = e;
+            }
+        }
+
+        if(failure != null) throw failure;
+    }
+}
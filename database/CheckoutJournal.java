@@ -0,0 +1,761 @@
+package database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import apps.CounterPoint;
+
+/**
+ * Append only journal of completed checkouts in a memory mapped file. A register
+ * in journal mode appends its basket and forces the mapping to disk, which takes
+ * microseconds, then hands the receipt to the cashier. A background applier
+ * drains the journal into TRANSACTIONS, PROD_TRANSACTIONS, PROD_STORE and
+ * SALES_DAILY, up to BATCH_SIZE baskets per database transaction, so a slow or
+ * briefly locked database never stalls a lane.
+ *
+ * Every record carries a sequence number, and the last sequence applied is
+ * written to JOURNAL_APPLIED in the same transaction as the baskets. On open the
+ * journal is scanned and every record past that sequence is applied again before
+ * open returns, so a basket is entered exactly once across restarts and the
+ * registers load their stock from a database that holds every journaled sale.
+ *
+ * The file is a ring: a record that does not fit before the end of the file goes
+ * to the top as soon as the records there are applied, and a WRAP marker sends
+ * the reader after it. The header keeps the position of the oldest record not
+ * applied, where the scan on open starts. It only moves past records after a
+ * CHECKPOINT SYNC has made their transactions durable, which the applier runs
+ * every SYNC_MS, when idle and when a lane waits for room. When the applier falls so far behind
+ * that the ring stays full for FULL_WAIT_MS, append gives up and the lane fails
+ * the basket.
+ *
+ * A batch the database rejects is applied again one basket at a time. A basket
+ * rejected on its own, such as one of an unknown store or customer, is moved to
+ * JOURNAL_DEAD with the error and the applier goes on with the next one.
+ *
+ * Record: length, seq, time, store, customer, lines, (upc14, qty) per line, crc32.
+ * A record whose crc does not match, or whose sequence does not follow the one
+ * before it, ends the journal.
+ *
+ * Stock is taken from the register's ProductCache when the basket is appended,
+ * the applier then subtracts it from PROD_STORE as is. The journal counts the
+ * units of every product it holds but has not applied, so a refresh of the cache
+ * from PROD_STORE leaves them out. The file is locked so a
+ * single process writes it.
+ */
+public class CheckoutJournal {
+
+    /**
+     * Bytes mapped for the journal.
+     */
+    public static final int SIZE = 16 << 20;
+
+    /**
+     * Largest number of baskets applied by one database transaction.
+     */
+    public static final int BATCH_SIZE = 64;
+
+    /**
+     * Pause before a failed batch is applied again.
+     */
+    public static final long RETRY_MS = 500;
+
+    /**
+     * Longest wait of append for room in a full journal.
+     */
+    public static final long FULL_WAIT_MS = 5000;
+
+    /**
+     * Longest time the space of applied records is held before the database is synced.
+     */
+    public static final long SYNC_MS = 1000;
+
+    private static final int MAGIC = 0x434A4E31; // CJN1
+    private static final int HEADER = 16;
+
+    // Header offset of the oldest record not applied
+    private static final int TAIL = 8;
+
+    // In place of a record length, the next record is at the top of the file
+    private static final int WRAP = -1;
+
+    // length, seq, time, store, customer, lines and crc
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int LINE_SIZE = 8 + 4;
+
+    private static final String APPLIED_DDL =
+        "CREATE TABLE IF NOT EXISTS JOURNAL_APPLIED(journal VARCHAR(255) PRIMARY KEY, seq BIGINT NOT NULL);";
+
+    private static final String DEAD_DDL =
+        "CREATE TABLE IF NOT EXISTS JOURNAL_DEAD(journal VARCHAR(255), seq BIGINT, time TIMESTAMP, " +
+        "store_id INT, customer_id INT, lines VARCHAR, error VARCHAR, PRIMARY KEY(journal, seq));";
+
+    static final String APPLY_SQL = "UPDATE PROD_STORE SET INVENTORY = INVENTORY - ? WHERE UPC14 = ? AND STORE_ID = ?;";
+
+    /**
+     * A basket read back from the journal.
+     */
+    private static class Record {
+        long seq;
+        long time;
+        int storeID;
+        int customerID;
+        long[] upc;
+        int[] qty;
+        int end;
+    }
+
+    private final String name;
+    private final ConnectionPool pool;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final MappedByteBuffer map;
+    private final CRC32 crc = new CRC32();
+    private final Thread worker;
+    private volatile boolean stopping;
+
+    // Guarded by this, records from tail on may not be durable in the database yet
+    private int writePos;
+    private int readPos;
+    private int tail;
+    private int waiting;
+    private long synced;
+
+    // Units appended but not applied, per store and product
+    private final HashMap<Integer, HashMap<Long, Integer>> held = new HashMap<Integer, HashMap<Long, Integer>>();
+    private long lastSeq;
+    private long appliedSeq;
+
+    private long applied;
+    private long batches;
+    private long dead;
+
+    private CheckoutJournal(String path, ConnectionPool pool) throws IOException {
+        this.name = Paths.get(path).getFileName().toString();
+        this.pool = pool;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.fileLock = channel.tryLock();
+        if(fileLock == null){
+            channel.close();
+            throw new IOException("Journal " + path + " is used by another process");
+        }
+
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        this.worker = new Thread(this::drain, "checkout-journal");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Opens a journal, applies the records not yet applied and starts the applier.
+     *
+     * @param path Path of the journal file, created if missing
+     * @param pool Pool the applier borrows its connection from
+     * @return The open journal
+     * @throws SQLException If the records left by the last run cannot be applied
+     */
+    public static CheckoutJournal open(String path, ConnectionPool pool) throws IOException, SQLException {
+        CheckoutJournal journal = new CheckoutJournal(path, pool);
+
+        try{
+            journal.recover();
+            journal.replay();
+        } catch(IOException | SQLException e){
+            journal.release();
+            throw e;
+        }
+
+        journal.worker.start();
+        return journal;
+    }
+
+    /**
+     * Reads the applied sequence from the database and scans the file for the
+     * records after it.
+     */
+    private void recover() throws IOException, SQLException {
+        Connection conn = pool.borrow();
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute(APPLIED_DDL);
+            stmt.execute(DEAD_DDL);
+
+            PreparedStatement pstmt = conn.prepareStatement("SELECT SEQ FROM JOURNAL_APPLIED WHERE JOURNAL = ?;");
+            pstmt.setString(1, name);
+
+            ResultSet res = pstmt.executeQuery();
+            appliedSeq = res.next() ? res.getLong(1) : 0;
+        } finally {
+            pool.release(conn);
+        }
+
+        if(map.getInt(0) != MAGIC){
+            if(map.getInt(0) != 0) throw new IOException("Not a checkout journal: " + name);
+
+            map.putInt(0, MAGIC);
+            map.putInt(4, 1);
+            map.force();
+        }
+
+        int pos = map.getInt(TAIL);
+        if(pos < HEADER || pos >= SIZE) pos = HEADER;
+
+        readPos = -1;
+        lastSeq = appliedSeq;
+
+        ByteBuffer buf = map.duplicate();
+        boolean lapped = false;
+        long prev = -1;
+        for(;;){
+            int at = next(buf, pos);
+            if(at != pos && lapped) break;
+
+            Record rec = read(buf, at, prev);
+            if(rec == null) break;
+
+            if(at != pos) lapped = true;
+            if(rec.seq > appliedSeq && readPos < 0) readPos = at;
+            if(rec.seq > appliedSeq) hold(rec.storeID, rec.upc, rec.qty, rec.upc.length, 1);
+
+            prev = rec.seq;
+            lastSeq = Math.max(lastSeq, rec.seq);
+            pos = rec.end;
+        }
+
+        writePos = pos;
+        if(readPos < 0) readPos = pos;
+
+        // The records before readPos are in the database as read at open
+        tail = readPos;
+        map.putInt(TAIL, tail);
+        map.force();
+
+        if(lastSeq > appliedSeq){
+            System.out.println("Checkout journal: replaying " + (lastSeq - appliedSeq) + " baskets");
+        }
+    }
+
+    /**
+     * Appends a completed basket and forces it to disk.
+     *
+     * @param time Time of the checkout in milliseconds
+     * @param storeID The store id
+     * @param customerID The customer id
+     * @param upc Packed UPC14 of each line
+     * @param qty Quantity of each line
+     * @param lines Number of lines
+     * @return True once the basket is on disk, False if the journal stayed full for FULL_WAIT_MS
+     */
+    public synchronized boolean append(long time, int storeID, int customerID, long[] upc, int[] qty, int lines)
+    throws IOException
+    {
+        int length = RECORD_OVERHEAD + lines * LINE_SIZE;
+        if(2 * length > SIZE - HEADER) throw new IOException("Basket too large for the journal");
+
+        // Counted before any wait, the lane has taken the stock from the cache
+        hold(storeID, upc, qty, lines, 1);
+
+        long deadline = System.currentTimeMillis() + FULL_WAIT_MS;
+        int pos;
+        while((pos = room(length)) < 0){
+            long left = deadline - System.currentTimeMillis();
+            if(left <= 0){
+                hold(storeID, upc, qty, lines, -1);
+                return false;
+            }
+
+            waiting++;
+            notifyAll();
+            try{
+                wait(left);
+            } catch(InterruptedException e){
+                hold(storeID, upc, qty, lines, -1);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while the journal is full");
+            } finally {
+                waiting--;
+            }
+        }
+
+        if(pos != writePos){
+            // The record goes on at the top, the reader is sent after it
+            if(writePos + 4 <= SIZE) map.putInt(writePos, WRAP);
+            writePos = pos;
+        }
+
+        long seq = lastSeq + 1;
+
+        ByteBuffer buf = map.duplicate();
+        buf.position(writePos);
+        buf.putInt(length);
+        buf.putLong(seq);
+        buf.putLong(time);
+        buf.putInt(storeID);
+        buf.putInt(customerID);
+        buf.putInt(lines);
+        for(int i = 0; i < lines; i++){
+            buf.putLong(upc[i]);
+            buf.putInt(qty[i]);
+        }
+        buf.putInt(checksum(writePos, length));
+
+        map.force();
+
+        writePos += length;
+        lastSeq = seq;
+        notifyAll();
+
+        return true;
+    }
+
+    /**
+     * @param length Length of a record
+     * @return Where the record goes, -1 if the journal has no room for it
+     */
+    private int room(int length){
+        if(writePos < tail) return writePos + length < tail ? writePos : -1;
+        if(writePos + length <= SIZE) return writePos;
+
+        return HEADER + length < tail ? HEADER : -1;
+    }
+
+    /**
+     * @return The position of the record at pos, the top of the file if pos ends a lap
+     */
+    private static int next(ByteBuffer buf, int pos){
+        return pos + 4 > SIZE || buf.getInt(pos) == WRAP ? HEADER : pos;
+    }
+
+    /**
+     * Adds or removes the units of a basket's lines from the held counts.
+     */
+    private void hold(int storeID, long[] upc, int[] qty, int lines, int sign){
+        HashMap<Long, Integer> store = held.get(storeID);
+        if(store == null){
+            store = new HashMap<Long, Integer>();
+            held.put(storeID, store);
+        }
+
+        for(int i = 0; i < lines; i++){
+            int units = store.getOrDefault(upc[i], 0) + sign * qty[i];
+            if(units == 0) store.remove(upc[i]);
+            else store.put(upc[i], units);
+        }
+    }
+
+    /**
+     * Reads a product's price and inventory into the cache again, less the units
+     * appended but not applied. No basket is appended or applied meanwhile.
+     *
+     * @param conn Connection to the database
+     * @param cache The store's cache
+     * @param key The packed UPC14
+     * @return False if the store does not sell the product
+     */
+    public synchronized boolean refresh(Connection conn, ProductCache cache, long key) throws SQLException {
+        HashMap<Long, Integer> store = held.get(cache.getStoreID());
+        return cache.refresh(conn, key, store == null ? 0 : store.getOrDefault(key, 0));
+    }
+
+    /**
+     * @return Number of appended baskets not yet in the database
+     */
+    public synchronized long pending(){
+        return lastSeq - appliedSeq;
+    }
+
+    /**
+     * Reads the record at pos.
+     *
+     * @param buf A view of the mapping
+     * @param prev Sequence of the record before, -1 for the first record
+     * @return The record, null if pos does not hold a valid record
+     */
+    private Record read(ByteBuffer buf, int pos, long prev){
+        if(pos + RECORD_OVERHEAD > SIZE) return null;
+
+        int length = buf.getInt(pos);
+        if(length < RECORD_OVERHEAD || pos + length > SIZE) return null;
+
+        int lines = buf.getInt(pos + 4 + 8 + 8 + 4 + 4);
+        if(lines < 0 || length != RECORD_OVERHEAD + lines * LINE_SIZE) return null;
+        if(buf.getInt(pos + length - 4) != checksum(pos, length)) return null;
+
+        Record rec = new Record();
+        buf.position(pos + 4);
+        rec.seq = buf.getLong();
+        if(prev >= 0 && rec.seq != prev + 1) return null;
+
+        rec.time = buf.getLong();
+        rec.storeID = buf.getInt();
+        rec.customerID = buf.getInt();
+        buf.getInt();
+
+        rec.upc = new long[lines];
+        rec.qty = new int[lines];
+        for(int i = 0; i < lines; i++){
+            rec.upc[i] = buf.getLong();
+            rec.qty[i] = buf.getInt();
+        }
+
+        rec.end = pos + length;
+        return rec;
+    }
+
+    /**
+     * @return crc32 of a record's bytes between its length and its crc
+     */
+    private int checksum(int pos, int length){
+        byte[] bytes = new byte[length - 8];
+        ByteBuffer buf = map.duplicate();
+        buf.position(pos + 4);
+        buf.get(bytes);
+
+        synchronized(crc){
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Applies the records left by the last run on the calling thread, nothing is
+     * appended meanwhile.
+     */
+    private void replay() throws SQLException {
+        ArrayList<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+
+        while(readBatch(batch)){
+            applyBatch(batch);
+            batch.clear();
+        }
+
+        sync();
+    }
+
+    /**
+     * Reads up to BATCH_SIZE records appended since the last batch applied.
+     *
+     * @param batch Receives the records
+     * @return False if there is none
+     */
+    private boolean readBatch(ArrayList<Record> batch){
+        int from;
+        int to;
+
+        synchronized(this){
+            from = readPos;
+            to = writePos;
+        }
+
+        ByteBuffer buf = map.duplicate();
+        for(int pos = from; pos != to && batch.size() < BATCH_SIZE; ){
+            pos = next(buf, pos);
+            if(pos == to) break;
+
+            Record rec = read(buf, pos, batch.isEmpty() ? -1 : batch.get(batch.size() - 1).seq);
+            if(rec == null) break;
+
+            batch.add(rec);
+            pos = rec.end;
+        }
+
+        return !batch.isEmpty();
+    }
+
+    /**
+     * Moves past a batch once it is in the database.
+     */
+    private synchronized void advance(ArrayList<Record> batch){
+        for(Record rec : batch) hold(rec.storeID, rec.upc, rec.qty, rec.upc.length, -1);
+
+        Record last = batch.get(batch.size() - 1);
+        readPos = last.end;
+        appliedSeq = last.seq;
+        applied += batch.size();
+        batches++;
+        notifyAll();
+    }
+
+    /**
+     * Applier loop, applies whatever was appended since the last batch.
+     */
+    private void drain(){
+        ArrayList<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+
+        for(;;){
+            boolean idle;
+            synchronized(this){
+                idle = readPos == writePos;
+            }
+
+            try{
+                if(idle || waiting() || System.currentTimeMillis() - synced >= SYNC_MS) sync();
+            } catch(SQLException e){
+                System.out.println("Checkout journal: " + e.getMessage());
+            }
+
+            synchronized(this){
+                while(readPos == writePos && !stopping){
+                    try{
+                        wait(100);
+                    } catch(InterruptedException e){
+                        return;
+                    }
+                }
+
+                if(readPos == writePos) return;
+            }
+
+            if(!readBatch(batch)) return;
+
+            try{
+                applyBatch(batch);
+            } catch(SQLException e){
+                System.out.println("Checkout journal: " + e.getMessage() + ", " + pending() + " baskets pending");
+                if(stopping) return;
+
+                try{
+                    Thread.sleep(RETRY_MS);
+                } catch(InterruptedException e_nested){
+                    return;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized boolean waiting(){
+        return waiting > 0;
+    }
+
+    /**
+     * Syncs the database and hands the space of the records applied so far back
+     * to append.
+     */
+    private void sync() throws SQLException {
+        int target;
+        synchronized(this){
+            synced = System.currentTimeMillis();
+            if(tail == readPos) return;
+            target = readPos;
+        }
+
+        Connection conn = pool.borrow();
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute("CHECKPOINT SYNC;");
+        } finally {
+            pool.release(conn);
+        }
+
+        synchronized(this){
+            map.putInt(TAIL, target);
+            map.force();
+            tail = target;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Applies a batch and moves past it. If the database rejects the batch its
+     * baskets are applied one at a time, and a basket rejected on its own is moved
+     * to JOURNAL_DEAD.
+     *
+     * @throws SQLException If the database cannot be written, the baskets applied
+     *                      so far are moved past
+     */
+    private void applyBatch(ArrayList<Record> batch) throws SQLException {
+        try{
+            apply(batch);
+            advance(batch);
+            return;
+        } catch(SQLException e){
+            if(!rejected(e)) throw e;
+        }
+
+        ArrayList<Record> one = new ArrayList<Record>(1);
+        for(Record rec : batch){
+            one.clear();
+            one.add(rec);
+
+            try{
+                apply(one);
+            } catch(SQLException e){
+                if(!rejected(e)) throw e;
+                deadLetter(rec, e);
+            }
+
+            advance(one);
+        }
+    }
+
+    /**
+     * @return True if the database rejected the data itself, a data exception or
+     *         a constraint violation, so applying it again cannot succeed
+     */
+    private static boolean rejected(SQLException e){
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /**
+     * Records a basket the database rejects in JOURNAL_DEAD, in the same transaction
+     * as the journal's applied sequence.
+     */
+    private void deadLetter(Record rec, SQLException cause) throws SQLException {
+        StringBuilder lines = new StringBuilder();
+        for(int i = 0; i < rec.upc.length; i++){
+            if(i > 0) lines.append(',');
+            lines.append(ProductCache.unpack(rec.upc[i])).append(':').append(rec.qty[i]);
+        }
+
+        Connection conn = null;
+
+        try{
+            conn = pool.borrow();
+            conn.setAutoCommit(false);
+
+            PreparedStatement pstmt = conn.prepareStatement(
+            "MERGE INTO JOURNAL_DEAD KEY(JOURNAL, SEQ) VALUES(?, ?, ?, ?, ?, ?, ?);");
+            pstmt.setString(1, name);
+            pstmt.setLong(2, rec.seq);
+            pstmt.setTimestamp(3, new Timestamp(rec.time));
+            pstmt.setInt(4, rec.storeID);
+            pstmt.setInt(5, rec.customerID);
+            pstmt.setString(6, lines.toString());
+            pstmt.setString(7, cause.getMessage());
+            pstmt.executeUpdate();
+
+            PreparedStatement seqStmt = conn.prepareStatement(
+            "MERGE INTO JOURNAL_APPLIED KEY(JOURNAL) VALUES(?, ?);");
+            seqStmt.setString(1, name);
+            seqStmt.setLong(2, rec.seq);
+            seqStmt.executeUpdate();
+
+            conn.commit();
+        } catch(SQLException e){
+            if(conn != null) conn.rollback();
+            throw e;
+        } finally {
+            pool.release(conn);
+        }
+
+        synchronized(this){
+            dead++;
+        }
+        System.out.println("Checkout journal: basket " + rec.seq + " moved to JOURNAL_DEAD, " + cause.getMessage());
+    }
+
+    /**
+     * Enters a batch of baskets in a single transaction along with the journal's
+     * applied sequence.
+     */
+    private void apply(ArrayList<Record> batch) throws SQLException {
+        Connection conn = null;
+
+        try{
+            conn = pool.borrow();
+            conn.setAutoCommit(false);
+
+            PreparedStatement transStmt = conn.prepareStatement(
+            "INSERT INTO TRANSACTIONS VALUES(null, ?, ?, ?);",
+            Statement.RETURN_GENERATED_KEYS);
+
+            PreparedStatement upStmt = conn.prepareStatement(APPLY_SQL);
+
+            PreparedStatement insStmt = conn.prepareStatement(
+            "INSERT INTO PROD_TRANSACTIONS VALUES(?, ?, ?)");
+
+            PreparedStatement rollStmt = conn.prepareStatement(CounterPoint.SALES_DAILY_SQL);
+
+            for(Record rec : batch){
+                transStmt.setString(1, new Timestamp(rec.time).toString());
+                transStmt.setInt(2, rec.storeID);
+                transStmt.setInt(3, rec.customerID);
+                transStmt.executeUpdate();
+
+                ResultSet keys = transStmt.getGeneratedKeys();
+                if(!keys.next()) throw new SQLException("No transaction id generated");
+                long transactionKey = keys.getLong(1);
+
+                Date day = new Date(rec.time);
+
+                for(int i = 0; i < rec.upc.length; i++){
+                    String upc14 = ProductCache.unpack(rec.upc[i]);
+
+                    upStmt.setInt(1, rec.qty[i]);
+                    upStmt.setString(2, upc14);
+                    upStmt.setInt(3, rec.storeID);
+                    upStmt.addBatch();
+
+                    insStmt.setLong(1, transactionKey);
+                    insStmt.setString(2, upc14);
+                    insStmt.setInt(3, rec.qty[i]);
+                    insStmt.addBatch();
+
+                    rollStmt.setInt(1, rec.storeID);
+                    rollStmt.setString(2, upc14);
+                    rollStmt.setDate(3, day);
+                    rollStmt.setInt(4, rec.qty[i]);
+                    rollStmt.addBatch();
+                }
+            }
+
+            upStmt.executeBatch();
+            insStmt.executeBatch();
+            rollStmt.executeBatch();
+
+            PreparedStatement seqStmt = conn.prepareStatement(
+            "MERGE INTO JOURNAL_APPLIED KEY(JOURNAL) VALUES(?, ?);");
+            seqStmt.setString(1, name);
+            seqStmt.setLong(2, batch.get(batch.size() - 1).seq);
+            seqStmt.executeUpdate();
+
+            conn.commit();
+            ReorderPipeline.committed();
+        } catch(SQLException e){
+            ReorderPipeline.rolledBack();
+            if(conn != null) conn.rollback();
+            throw e;
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    /**
+     * Used on program exit, waits until every basket is applied or the database
+     * fails, then closes the file. Baskets left are applied on the next open.
+     */
+    public void close(){
+        stopping = true;
+
+        try{
+            worker.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(this){
+            System.out.println("Checkout journal: " + applied + " baskets applied in " + batches + " transactions, " +
+                               dead + " of them moved to JOURNAL_DEAD, " + pending() + " pending");
+        }
+
+        release();
+    }
+
+    private void release(){
+        try{
+            fileLock.release();
+            channel.close();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of connections to the embedded database. Connections are opened
+ * lazily up to the pool size, after which callers block until one is released.
+ *
+ * Borrowed connections serve prepareStatement(sql) and
+ * prepareStatement(sql, autoGeneratedKeys) out of a per connection
+ * StatementCache, and close() hands the connection back to the pool. Every
+ * statement handed out is recorded in the pool's QueryLog.
+ */
+public class ConnectionPool {
+
+    /**
+     * Default number of cached statements per connection.
+     */
+    public static final int STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * Invocation handler behind every pooled connection.
+     */
+    private class PooledConnection implements InvocationHandler {
+
+        private final Connection raw;
+        private final StatementCache cache;
+        private final Connection proxy;
+
+        PooledConnection(Connection raw){
+            this.raw = raw;
+            this.cache = new StatementCache(raw, STATEMENT_CACHE_SIZE);
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                             new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Class<?>[] params = method.getParameterTypes();
+
+            if(name.equals("prepareStatement") && params.length == 1){
+                return log.wrap(cache.prepare((String) args[0], -1), (String) args[0]);
+            }
+            if(name.equals("prepareStatement") && params.length == 2 && params[1] == int.class){
+                return log.wrap(cache.prepare((String) args[0], (Integer) args[1]), (String) args[0]);
+            }
+            if(name.equals("close") && params.length == 0){
+                release(this.proxy);
+                return null;
+            }
+
+            Object result;
+            try{
+                result = method.invoke(raw, args);
+            } catch(InvocationTargetException e){
+                throw e.getCause();
+            }
+
+            if(result instanceof Statement){
+                return log.wrap((Statement) result, name.equals("createStatement") ? null : (String) args[0]);
+            }
+            return result;
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int size;
+    private final QueryLog log;
+
+    private final ArrayBlockingQueue<Connection> idle;
+    private final ArrayList<PooledConnection> all;
+    private boolean closed;
+
+    /**
+     * ConnectionPool constructor, no connection is opened until the first borrow.
+     * Statements are logged to the location's .query.log file.
+     *
+     * @param location The location of the .db file.
+     * @param user The username for the database.
+     * @param password The password to the database.
+     * @param size The maximum number of open connections.
+     */
+    public ConnectionPool(String location,
+                          String user,
+                          String password,
+                          int size){
+
+        this.url = "jdbc:h2:" + location;
+        this.user = user;
+        this.password = password;
+        this.size = size;
+        this.log = new QueryLog(location.split(";")[0] + ".query.log");
+        this.idle = new ArrayBlockingQueue<Connection>(size);
+        this.all = new ArrayList<PooledConnection>(size);
+    }
+
+    /**
+     * @return The jdbc url connections are opened against.
+     */
+    public String getUrl(){
+        return url;
+    }
+
+    /**
+     * @return The log of the statements run on the pool's connections.
+     */
+    public QueryLog getQueryLog(){
+        return log;
+    }
+
+    /**
+     * Takes a connection from the pool, opening a new one if the pool has not yet
+     * reached its size. Blocks until a connection is released otherwise.
+     *
+     * @return An open connection with autocommit on.
+     * @throws SQLException If the pool is closed or a connection cannot be opened.
+     */
+    public Connection borrow() throws SQLException {
+        Connection conn = idle.poll();
+        if(conn != null) return conn;
+
+        synchronized(this){
+            if(closed) throw new SQLException("Connection pool is closed");
+
+            if(all.size() < size){
+                PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                all.add(pooled);
+                return pooled.proxy;
+            }
+        }
+
+        try{
+            while((conn = idle.poll(1, TimeUnit.SECONDS)) == null){
+                synchronized(this){
+                    if(closed) throw new SQLException("Connection pool is closed");
+                }
+            }
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        return conn;
+    }
+
+    /**
+     * Returns a connection to the pool. Connections left inside a transaction are
+     * rolled back, broken connections are discarded.
+     *
+     * @param conn The connection previously borrowed.
+     */
+    public void release(Connection conn){
+        if(conn == null) return;
+
+        PooledConnection pooled = (PooledConnection) Proxy.getInvocationHandler(conn);
+
+        try{
+            if(pooled.raw.isClosed()){
+                discard(pooled);
+                return;
+            }
+
+            if(!pooled.raw.getAutoCommit()){
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+        } catch(SQLException e){
+            discard(pooled);
+            return;
+        }
+
+        synchronized(this){
+            if(closed){
+                discard(pooled);
+                return;
+            }
+        }
+
+        idle.offer(conn);
+    }
+
+    /**
+     * Closes a connection with its cached statements and frees its slot in the pool.
+     *
+     * @param pooled The connection to drop.
+     */
+    private void discard(PooledConnection pooled){
+        try{
+            pooled.cache.clear();
+            pooled.raw.close();
+        } catch(SQLException e){
+            e.printStackTrace();
+        }
+
+        synchronized(this){
+            all.remove(pooled);
+        }
+    }
+
+    /**
+     * @return Number of prepares served from the statement caches.
+     */
+    public synchronized long cacheHits(){
+        long hits = 0;
+        for(PooledConnection pooled : all) hits += pooled.cache.getHits();
+        return hits;
+    }
+
+    /**
+     * @return Number of prepares that missed the statement caches.
+     */
+    public synchronized long cacheMisses(){
+        long misses = 0;
+        for(PooledConnection pooled : all) misses += pooled.cache.getMisses();
+        return misses;
+    }
+
+    /**
+     * Used on program exit, closes every idle connection and writes the query
+     * log totals. Borrowed connections are closed as they are released.
+     */
+    public void close(){
+        synchronized(this){
+            if(closed) return;
+            closed = true;
+        }
+
+        Connection conn;
+        while((conn = idle.poll()) != null){
+            discard((PooledConnection) Proxy.getInvocationHandler(conn));
+        }
+
+        log.close();
+    }
+}
@@ -0,0 +1,273 @@
+package database;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming CSV reader. Records are parsed out of a fixed read buffer into a
+ * reusable record buffer, fields are exposed as offsets into it, so reading a row
+ * allocates nothing until a value is asked for as a String.
+ *
+ * Follows CSVREAD's rules: a header line, comma separated fields, double quoted
+ * fields may hold commas and "" escapes, unquoted fields are trimmed and an empty
+ * unquoted field is null.
+ */
+public class CsvReader implements Closeable {
+
+    private final Reader reader;
+    private final char[] buf = new char[64 * 1024];
+    private int pos;
+    private int limit;
+
+    private char[] rec = new char[1024];
+    private int recLen;
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int fields;
+
+    private final String[] header;
+    private long rows;
+
+    /**
+     * Opens a csv file and reads its header.
+     *
+     * @param path Path to the csv file
+     */
+    public CsvReader(String path) throws IOException {
+        this(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Wraps a reader and reads its header.
+     *
+     * @param reader The csv source
+     */
+    public CsvReader(Reader reader) throws IOException {
+        this.reader = reader;
+
+        if(!readRecord()) throw new IOException("Missing csv header");
+
+        header = new String[fields];
+        for(int i = 0; i < fields; i++){
+            header[i] = getString(i);
+        }
+    }
+
+    /**
+     * @return The header's column names
+     */
+    public String[] getHeader(){
+        return header;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return False at the end of the file
+     */
+    public boolean next() throws IOException {
+        boolean found = readRecord();
+        if(found) rows++;
+        return found;
+    }
+
+    /**
+     * @return Number of data records read so far
+     */
+    public long getRows(){
+        return rows;
+    }
+
+    /**
+     * @return Number of fields in the current record
+     */
+    public int getFieldCount(){
+        return fields;
+    }
+
+    /**
+     * @param i Zero based field index
+     * @return True if the field is missing or empty and unquoted
+     */
+    public boolean isNull(int i){
+        return i >= fields || (!quoted[i] && start[i] == end[i]);
+    }
+
+    /**
+     * @param i Zero based field index
+     * @return The field value, or null
+     */
+    public String getString(int i){
+        if(isNull(i)) return null;
+        return new String(rec, start[i], end[i] - start[i]);
+    }
+
+    /**
+     * Parses an integer field without creating a String.
+     *
+     * @param i Zero based field index
+     * @return The value
+     * @throws NumberFormatException If the field is not a plain integer
+     */
+    public long getLong(int i){
+        if(isNull(i)) throw new NumberFormatException("Null field " + i);
+
+        int p = start[i];
+        boolean neg = rec[p] == '-';
+        if(neg || rec[p] == '+') p++;
+        if(p == end[i]) throw new NumberFormatException(getString(i));
+
+        long val = 0;
+        for(; p < end[i]; p++){
+            char c = rec[p];
+            if(c < '0' || c > '9') throw new NumberFormatException(getString(i));
+            val = val * 10 + (c - '0');
+        }
+
+        return neg ? -val : val;
+    }
+
+    /**
+     * Feeds the characters of a field to a 64 bit FNV-1a hash, used to fingerprint
+     * records without creating Strings.
+     *
+     * @param i Zero based field index
+     * @param hash The running hash
+     * @return The updated hash
+     */
+    public long hashField(int i, long hash){
+        if(isNull(i)) return (hash ^ 0xFF) * 0x100000001B3L;
+
+        for(int p = start[i]; p < end[i]; p++){
+            hash = (hash ^ rec[p]) * 0x100000001B3L;
+        }
+
+        // Field separator, keeps "a","bc" apart from "ab","c"
+        return (hash ^ 0xFE) * 0x100000001B3L;
+    }
+
+    private int read() throws IOException {
+        if(pos == limit){
+            limit = reader.read(buf, 0, buf.length);
+            pos = 0;
+            if(limit <= 0){
+                limit = 0;
+                return -1;
+            }
+        }
+
+        return buf[pos++];
+    }
+
+    private void append(char c){
+        if(recLen == rec.length){
+            char[] grown = new char[rec.length * 2];
+            System.arraycopy(rec, 0, grown, 0, recLen);
+            rec = grown;
+        }
+        rec[recLen++] = c;
+    }
+
+    private void endField(int fieldStart, boolean isQuoted){
+        if(fields == start.length){
+            int[] s = new int[fields * 2];
+            int[] e = new int[fields * 2];
+            boolean[] q = new boolean[fields * 2];
+            System.arraycopy(start, 0, s, 0, fields);
+            System.arraycopy(end, 0, e, 0, fields);
+            System.arraycopy(quoted, 0, q, 0, fields);
+            start = s;
+            end = e;
+            quoted = q;
+        }
+
+        int fieldEnd = recLen;
+        if(!isQuoted){
+            // Trim unquoted values
+            while(fieldStart < fieldEnd && rec[fieldStart] <= ' ') fieldStart++;
+            while(fieldEnd > fieldStart && rec[fieldEnd - 1] <= ' ') fieldEnd--;
+        }
+
+        start[fields] = fieldStart;
+        end[fields] = fieldEnd;
+        quoted[fields] = isQuoted;
+        fields++;
+    }
+
+    /**
+     * Reads one record, skipping blank lines.
+     */
+    private boolean readRecord() throws IOException {
+        int c;
+
+        do{
+            c = read();
+        } while(c == '\n' || c == '\r');
+
+        if(c == -1) return false;
+
+        recLen = 0;
+        fields = 0;
+
+        int fieldStart = 0;
+        boolean isQuoted = false;
+        boolean inQuotes = false;
+
+        for(;; c = read()){
+            if(inQuotes){
+                if(c == -1) throw new IOException("Unterminated quoted field");
+
+                if(c == '"'){
+                    int n = read();
+                    if(n == '"'){
+                        append('"');
+                        continue;
+                    }
+                    inQuotes = false;
+                    c = n;
+                } else {
+                    append((char) c);
+                    continue;
+                }
+            }
+
+            if(c == -1 || c == '\n' || c == '\r'){
+                endField(fieldStart, isQuoted);
+                return true;
+            }
+
+            if(c == ','){
+                endField(fieldStart, isQuoted);
+                fieldStart = recLen;
+                isQuoted = false;
+            } else if(c == '"' && recLen == fieldStart){
+                isQuoted = true;
+                inQuotes = true;
+            } else if(c == '"' && !isQuoted && onlySpaces(fieldStart)){
+                // Leading whitespace before an opening quote
+                recLen = fieldStart;
+                isQuoted = true;
+                inQuotes = true;
+            } else if(!isQuoted){
+                append((char) c);
+            }
+        }
+    }
+
+    private boolean onlySpaces(int from){
+        for(int i = from; i < recLen; i++){
+            if(rec[i] > ' ') return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,296 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk enrollment of customers from a csv file in the layout of
+ * data/customer.csv. The file's own Customer_ID column is ignored, enrolled
+ * customers get ids from CUSTOMER_SEQ.
+ *
+ * The file is streamed through a CsvReader a chunk at a time. The phone numbers
+ * of a chunk are validated and normalized to (XXX)XXX-XXXX on a thread pool, then
+ * each record is looked up in a hashed set of the phone numbers already enrolled,
+ * holding the existing customers and the earlier records of the file, and the
+ * new ones are inserted in batches.
+ *
+ * The whole file is enrolled in one transaction. A failed import leaves no
+ * customer behind, so rerunning it does not enroll the customers without a phone
+ * number twice.
+ *
+ * A phone number has ten digits, optionally after a leading 1, any other
+ * characters are dropped. Records with another phone number are rejected, records
+ * without one are always enrolled.
+ */
+public class CustomerImport {
+
+    /**
+     * Records validated at once.
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    // Normalized phone of a record without one, and of an invalid one
+    private static final long NO_PHONE = -1;
+    private static final long INVALID = -2;
+
+    /**
+     * Open addressing set of ten digit phone numbers.
+     */
+    private static class PhoneSet {
+        // Phone number + 1, 0 marks a free slot
+        private long[] slots = new long[1024];
+        private int size;
+
+        /**
+         * @return False if the phone number was already in the set
+         */
+        boolean add(long phone){
+            if(size * 2 >= slots.length) grow();
+
+            long key = phone + 1;
+            int mask = slots.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+            while(slots[i] != 0){
+                if(slots[i] == key) return false;
+                i = (i + 1) & mask;
+            }
+
+            slots[i] = key;
+            size++;
+            return true;
+        }
+
+        int size(){
+            return size;
+        }
+
+        private void grow(){
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            size = 0;
+
+            for(long key : old){
+                if(key != 0) add(key - 1);
+            }
+        }
+    }
+
+    private final Connection conn;
+    private final IdAllocator ids;
+    private final int threads;
+
+    // One chunk of records
+    private final String[] first = new String[CHUNK_SIZE];
+    private final String[] last = new String[CHUNK_SIZE];
+    private final String[] raw = new String[CHUNK_SIZE];
+    private final long[] phone = new long[CHUNK_SIZE];
+    private final String[] formatted = new String[CHUNK_SIZE];
+
+    private long enrolled;
+    private long duplicates;
+    private long rejected;
+
+    /**
+     * CustomerImport constructor
+     *
+     * @param conn Connection to the database
+     * @param ids Allocator of customer ids, shared with the app's own signups
+     * @param threads Number of threads validating phone numbers
+     */
+    public CustomerImport(Connection conn, IdAllocator ids, int threads){
+        this.conn = conn;
+        this.ids = ids;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Enrolls every new customer of a csv file.
+     *
+     * @param csvPath Path to the csv file
+     * @return Number of customers enrolled
+     */
+    public long run(String csvPath) throws Exception {
+        long start = System.nanoTime();
+        long read = 0;
+        enrolled = duplicates = rejected = 0;
+
+        PhoneSet phones = existingPhones();
+        System.out.printf("Indexed %d phone numbers in %.2fs\n", phones.size(), (System.nanoTime() - start) / 1e9);
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try(CsvReader csv = new CsvReader(csvPath)){
+            if(csv.getHeader().length < 4) throw new SQLException("Not a customer file: " + csvPath);
+
+            PreparedStatement pstmt = conn.prepareStatement(
+            "INSERT INTO CUSTOMER VALUES (?, ?, ?, ?);");
+
+            for(;;){
+                int n = 0;
+                while(n < CHUNK_SIZE && csv.next()){
+                    first[n] = csv.getString(1);
+                    last[n] = csv.getString(2);
+                    raw[n] = csv.getString(3);
+                    n++;
+                }
+
+                if(n == 0) break;
+                read += n;
+
+                normalize(pool, n);
+                insert(pstmt, phones, n);
+            }
+
+            pstmt.executeBatch();
+            conn.commit();
+        } catch(Exception e){
+            conn.rollback();
+            throw e;
+        } finally {
+            pool.shutdown();
+            conn.setAutoCommit(autoCommit);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Enrolled %d of %d customers in %.2fs, %.0f rows/s, %d duplicate and %d invalid phone numbers\n",
+                          enrolled, read, seconds, read / seconds, duplicates, rejected);
+
+        return enrolled;
+    }
+
+    /**
+     * @return The normalized phone numbers of every customer
+     */
+    private PhoneSet existingPhones() throws SQLException {
+        PhoneSet phones = new PhoneSet();
+
+        try(Statement stmt = conn.createStatement();
+            ResultSet res = stmt.executeQuery("SELECT PHONE FROM CUSTOMER;")){
+
+            while(res.next()){
+                long p = normalize(res.getString(1));
+                if(p >= 0) phones.add(p);
+            }
+        }
+
+        return phones;
+    }
+
+    /**
+     * Normalizes the first n phone numbers of the chunk, split across the pool.
+     */
+    private void normalize(ExecutorService pool, int n) throws Exception {
+        int slice = (n + threads - 1) / threads;
+        List<Future<?>> parts = new ArrayList<Future<?>>();
+
+        for(int from = 0; from < n; from += slice){
+            int lo = from;
+            int hi = Math.min(n, from + slice);
+
+            parts.add(pool.submit(() -> {
+                for(int i = lo; i < hi; i++){
+                    phone[i] = normalize(raw[i]);
+                    formatted[i] = phone[i] >= 0 ? format(phone[i]) : null;
+                }
+                return null;
+            }));
+        }
+
+        BulkLoader.waitAll(parts);
+    }
+
+    /**
+     * Queues the chunk's new customers into the insert batch.
+     */
+    private void insert(PreparedStatement pstmt, PhoneSet phones, int n) throws SQLException {
+        for(int i = 0; i < n; i++){
+            if(phone[i] == INVALID){
+                rejected++;
+                continue;
+            }
+            if(phone[i] != NO_PHONE && !phones.add(phone[i])){
+                duplicates++;
+                continue;
+            }
+
+            pstmt.setInt(1, (int) ids.next(conn));
+            pstmt.setString(2, first[i]);
+            pstmt.setString(3, last[i]);
+            pstmt.setString(4, formatted[i]);
+            pstmt.addBatch();
+
+            if(++enrolled % BulkLoader.BATCH_SIZE == 0) pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * @param phone A phone number as entered
+     * @return Its ten digits as a number, NO_PHONE if it is empty or 0, INVALID otherwise
+     */
+    static long normalize(String phone){
+        if(phone == null) return NO_PHONE;
+
+        long digits = 0;
+        int count = 0;
+
+        for(int i = 0; i < phone.length(); i++){
+            char c = phone.charAt(i);
+            if(c < '0' || c > '9') continue;
+
+            if(++count > 11) return INVALID;
+            digits = digits * 10 + (c - '0');
+        }
+
+        if(count == 0 || count == 1 && digits == 0) return NO_PHONE;
+
+        // Leading country code
+        if(count == 11 && digits / 10000000000L == 1) return digits % 10000000000L;
+
+        return count == 10 ? digits : INVALID;
+    }
+
+    /**
+     * @param phone Ten digit phone number
+     * @return The number as (XXX)XXX-XXXX
+     */
+    static String format(long phone){
+        char[] out = "(000)000-0000".toCharArray();
+        int[] positions = {12, 11, 10, 9, 7, 6, 5, 3, 2, 1};
+
+        for(int pos : positions){
+            out[pos] = (char) ('0' + phone % 10);
+            phone /= 10;
+        }
+
+        return new String(out);
+    }
+
+    /**
+     * Usage: java database.CustomerImport file [threads]
+     *
+     * Enrolls the customers of a csv file into ./database/db.
+     */
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java database.CustomerImport file [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        try(Connection conn = DriverManager.getConnection("jdbc:h2:./database/db;IFEXISTS=TRUE", "user", "password")){
+            new CustomerImport(conn, new IdAllocator("CUSTOMER_SEQ"), threads).run(args[0]);
+        } catch(Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
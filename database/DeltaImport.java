@@ -0,0 +1,580 @@
+package database;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental re-import of the csv files into an existing database. A content
+ * hash of every imported row is kept per primary key in CSV_ROW_HASH, and each
+ * file's size and modification time in CSV_FILE_STATE.
+ *
+ * Unchanged files are skipped outright. For the others only new and changed rows
+ * are written with MERGE batches and rows that disappeared from the file are
+ * deleted, children before parents. Rows created by the apps were never imported
+ * and so are never deleted, and rows the apps changed are only overwritten when
+ * their csv line changes.
+ *
+ * The tables the apps write to (sales and reorder requests) are only ever bulk
+ * loaded, and a product's inventory is never taken from the csv once the product
+ * is in a store. Both load modes seed the hashes, so the first run after a load
+ * only writes what changed since.
+ *
+ * The apps also add rows to tables keyed by a sequence, such as customers they
+ * enroll. A new csv row of such a table is only inserted if its key is free or
+ * holds the same row already, a key the apps handed out to another row is
+ * reported as a conflict and left alone.
+ */
+public class DeltaImport {
+
+    /**
+     * Rows per executeBatch.
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    private static final String STATE_DDL[] = {
+        "CREATE TABLE IF NOT EXISTS CSV_FILE_STATE(tbl VARCHAR(64) PRIMARY KEY, size BIGINT, modified BIGINT);",
+        "CREATE TABLE IF NOT EXISTS CSV_ROW_HASH(tbl VARCHAR(64), pk VARCHAR(255), hash BIGINT, PRIMARY KEY(tbl, pk));"
+    };
+
+    /**
+     * Tables filled by the apps, the csv only seeds them on a full load.
+     */
+    static final Set<String> APP_TABLES = new HashSet<String>(Arrays.asList(
+        "TRANSACTIONS", "PROD_TRANSACTIONS", "REORDER_REQUEST"));
+
+    /**
+     * Columns the apps keep up to date: table, column. Rows already in the table
+     * keep their value.
+     */
+    static final String[][] KEPT_COLUMNS = {
+        {"PROD_STORE", "INVENTORY"}
+    };
+
+    // Separates primary key values inside CSV_ROW_HASH.PK
+    private static final char PK_SEP = '\u0001';
+
+    private final Connection conn;
+
+    // Tables whose file changed in the last run
+    private final Set<String> changed = new HashSet<String>();
+
+    /**
+     * DeltaImport constructor
+     *
+     * @param conn Connection to the existing database
+     */
+    public DeltaImport(Connection conn){
+        this.conn = conn;
+    }
+
+    /**
+     * @param tableName A table
+     * @return True if the last run merged or deleted rows of it
+     */
+    public boolean changed(String tableName){
+        return changed.contains(tableName);
+    }
+
+    /**
+     * Imports every table's delta.
+     *
+     * @param tables Table definitions in creation order: name, csv path, field definitions
+     */
+    public void run(String[][] tables) throws Exception {
+        long start = System.nanoTime();
+        changed.clear();
+
+        try(Statement stmt = conn.createStatement()){
+            for(String ddl : STATE_DDL) stmt.execute(ddl);
+        }
+
+        conn.setAutoCommit(false);
+
+        // Deleted keys per table, applied once all parents have been merged
+        Map<String, List<String>> deletes = new HashMap<String, List<String>>();
+
+        for(String[] table : tables){
+            if(APP_TABLES.contains(table[0])){
+                System.out.printf("Skipped   %-18s written by the apps\n", table[0]);
+                continue;
+            }
+
+            deletes.put(table[0], mergeTable(table[0], table[1]));
+        }
+
+        for(int i = tables.length - 1; i >= 0; i--){
+            if(deletes.containsKey(tables[i][0])) deleteRows(tables[i][0], deletes.get(tables[i][0]));
+        }
+
+        conn.setAutoCommit(true);
+
+        System.out.printf("Delta import finished in %.2fs\n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Records the hash of every csv row and the state of every file, once the
+     * files were loaded in full.
+     *
+     * @param tables Table definitions in creation order: name, csv path, field definitions
+     */
+    public void seed(String[][] tables) throws Exception {
+        long start = System.nanoTime();
+
+        try(Statement stmt = conn.createStatement()){
+            for(String ddl : STATE_DDL) stmt.execute(ddl);
+        }
+
+        conn.setAutoCommit(false);
+
+        try(PreparedStatement hashMerge = conn.prepareStatement(
+            "MERGE INTO CSV_ROW_HASH KEY(TBL, PK) VALUES(?, ?, ?);")){
+
+            for(String[] table : tables){
+                if(APP_TABLES.contains(table[0])) continue;
+
+                int fields = BulkLoader.columnTypes(conn, table[0]).length;
+                int[] pkCols = primaryKey(table[0]);
+                long rows = 0;
+
+                try(Statement stmt = conn.createStatement()){
+                    stmt.execute("DELETE FROM CSV_ROW_HASH WHERE TBL = '" + table[0] + "';");
+                }
+
+                try(CsvReader csv = new CsvReader(table[1])){
+                    while(csv.next()){
+                        hashMerge.setString(1, table[0]);
+                        hashMerge.setString(2, primaryKeyString(csv, pkCols));
+                        hashMerge.setLong(3, rowHash(csv, fields));
+                        hashMerge.addBatch();
+
+                        if(++rows % BATCH_SIZE == 0) hashMerge.executeBatch();
+                    }
+                }
+
+                hashMerge.executeBatch();
+                saveFileState(table[0], new File(table[1]));
+                conn.commit();
+            }
+        }
+
+        conn.setAutoCommit(true);
+
+        System.out.printf("Delta state seeded in %.2fs\n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Merges new and changed rows of one table.
+     *
+     * @param tableName The table
+     * @param csvPath Path to the csv source file
+     * @return Primary keys found in the last import but missing from the file
+     */
+    private List<String> mergeTable(String tableName, String csvPath) throws Exception {
+        File file = new File(csvPath);
+
+        try(PreparedStatement state = conn.prepareStatement(
+            "SELECT SIZE, MODIFIED FROM CSV_FILE_STATE WHERE TBL = ?;")){
+            state.setString(1, tableName);
+
+            try(ResultSet stateRes = state.executeQuery()){
+                if(stateRes.next() && stateRes.getLong(1) == file.length() && stateRes.getLong(2) == file.lastModified()){
+                    System.out.printf("Unchanged %-18s\n", tableName);
+                    return new ArrayList<String>();
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        changed.add(tableName);
+
+        int[] types = BulkLoader.columnTypes(conn, tableName);
+        int[] pkCols = primaryKey(tableName);
+        HashMap<String, Long> previous = previousHashes(tableName);
+
+        List<String> columns = columnNames(tableName);
+        Set<Integer> kept = keptColumns(tableName, columns);
+        boolean sequenced = sequenced(tableName);
+
+        // Keys of the batched rows of a sequenced table new to the csv
+        List<String> createdKeys = new ArrayList<String>();
+        List<String> conflicts = new ArrayList<String>();
+
+        long merged = 0;
+
+        // Without kept columns a MERGE writes the whole row. Otherwise existing rows
+        // are updated without the kept columns and missing rows inserted in full.
+        try(PreparedStatement merge = conn.prepareStatement(kept.isEmpty() ? mergeSql(tableName, columns, pkCols)
+                                                                           : updateSql(tableName, columns, pkCols, kept));
+            PreparedStatement insert = kept.isEmpty() ? null : conn.prepareStatement(insertSql(tableName, columns, pkCols));
+            PreparedStatement create = sequenced ? conn.prepareStatement(insertSql(tableName, columns, pkCols)) : null;
+            PreparedStatement adopt = sequenced ? conn.prepareStatement(adoptSql(tableName, columns, pkCols, kept)) : null;
+            PreparedStatement hashMerge = conn.prepareStatement(
+            "MERGE INTO CSV_ROW_HASH KEY(TBL, PK) VALUES(?, ?, ?);");
+            CsvReader csv = new CsvReader(csvPath)){
+
+            long batched = 0;
+
+            while(csv.next()){
+                long hash = rowHash(csv, types.length);
+
+                String pk = primaryKeyString(csv, pkCols);
+                Long old = previous.remove(pk);
+                if(old != null && old == hash) continue;
+
+                if(create != null && old == null){
+                    // Never imported, so a different row under this key is the apps'
+                    bindInsert(create, csv, types, pkCols);
+                    create.addBatch();
+
+                    adopt.setString(1, tableName);
+                    adopt.setString(2, pk);
+                    adopt.setLong(3, hash);
+                    int param = 4;
+                    for(int col : pkCols){
+                        BulkLoader.bindField(adopt, param++, csv, col, types[col]);
+                    }
+                    for(int i = 0; i < types.length; i++){
+                        if(!kept.contains(i) && !isKey(pkCols, i)) BulkLoader.bindField(adopt, param++, csv, i, types[i]);
+                    }
+                    adopt.addBatch();
+                    createdKeys.add(pk);
+                } else {
+                    if(insert == null){
+                        BulkLoader.bindRow(merge, csv, types);
+                    } else {
+                        int param = 1;
+                        for(int i = 0; i < types.length; i++){
+                            if(!kept.contains(i) && !isKey(pkCols, i)) BulkLoader.bindField(merge, param++, csv, i, types[i]);
+                        }
+                        for(int col : pkCols){
+                            BulkLoader.bindField(merge, param++, csv, col, types[col]);
+                        }
+
+                        bindInsert(insert, csv, types, pkCols);
+                        insert.addBatch();
+                    }
+                    merge.addBatch();
+
+                    hashMerge.setString(1, tableName);
+                    hashMerge.setString(2, pk);
+                    hashMerge.setLong(3, hash);
+                    hashMerge.addBatch();
+                    merged++;
+                }
+
+                if(++batched % BATCH_SIZE == 0){
+                    merge.executeBatch();
+                    if(insert != null) insert.executeBatch();
+                    if(create != null) merged += created(create, adopt, createdKeys, conflicts);
+                    hashMerge.executeBatch();
+                }
+            }
+
+            merge.executeBatch();
+            if(insert != null) insert.executeBatch();
+            if(create != null) merged += created(create, adopt, createdKeys, conflicts);
+            hashMerge.executeBatch();
+        }
+
+        saveFileState(tableName, file);
+
+        conn.commit();
+
+        System.out.printf("Merged    %-18s %10d rows %8.2fs, %d deleted\n", tableName, merged,
+                          (System.nanoTime() - start) / 1e9, previous.size());
+
+        if(!conflicts.isEmpty()){
+            System.out.printf("Conflicts %-18s %10d rows skipped, keys taken by the apps: %s%s\n", tableName,
+                              conflicts.size(), String.join(", ", conflicts.subList(0, Math.min(10, conflicts.size()))),
+                              conflicts.size() > 10 ? ", ..." : "");
+        }
+
+        return new ArrayList<String>(previous.keySet());
+    }
+
+    /**
+     * Runs the batched inserts of rows new to a sequenced table's csv, then
+     * records the hash of each row the table now holds as in the csv. A key the
+     * apps gave to another row is added to conflicts instead, and is tried again
+     * once the csv file changes.
+     *
+     * @return Number of rows inserted
+     */
+    private static int created(PreparedStatement create, PreparedStatement adopt, List<String> keys,
+                               List<String> conflicts) throws SQLException {
+        int[] inserted = create.executeBatch();
+        int[] adopted = adopt.executeBatch();
+        int rows = 0;
+
+        for(int i = 0; i < keys.size(); i++){
+            if(adopted[i] == 0) conflicts.add(keys.get(i));
+            else if(inserted[i] > 0) rows++;
+        }
+        keys.clear();
+
+        return rows;
+    }
+
+    /**
+     * Deletes rows that were removed from a table's csv file.
+     *
+     * @param tableName The table
+     * @param keys Primary key strings of the removed rows
+     */
+    private void deleteRows(String tableName, List<String> keys) throws SQLException {
+        if(keys.isEmpty()) return;
+
+        List<String> columns = columnNames(tableName);
+        int[] pkCols = primaryKey(tableName);
+
+        StringBuilder sql = new StringBuilder("DELETE FROM " + tableName + " WHERE ");
+        for(int i = 0; i < pkCols.length; i++){
+            sql.append(i == 0 ? "" : " AND ").append(columns.get(pkCols[i])).append(" = ?");
+        }
+        sql.append(";");
+
+        try(PreparedStatement delete = conn.prepareStatement(sql.toString());
+            PreparedStatement hashDelete = conn.prepareStatement(
+            "DELETE FROM CSV_ROW_HASH WHERE TBL = ? AND PK = ?;")){
+            int n = 0;
+            for(String pk : keys){
+                String[] vals = pk.split(String.valueOf(PK_SEP), -1);
+                for(int i = 0; i < vals.length; i++){
+                    delete.setString(i + 1, vals[i]);
+                }
+                delete.addBatch();
+
+                hashDelete.setString(1, tableName);
+                hashDelete.setString(2, pk);
+                hashDelete.addBatch();
+
+                if(++n % BATCH_SIZE == 0){
+                    delete.executeBatch();
+                    hashDelete.executeBatch();
+                }
+            }
+
+            delete.executeBatch();
+            hashDelete.executeBatch();
+            conn.commit();
+        } catch(SQLException e){
+            conn.rollback();
+
+            // Forget the file state so the next run retries the delete
+            try(PreparedStatement stateDelete = conn.prepareStatement(
+                "DELETE FROM CSV_FILE_STATE WHERE TBL = ?;")){
+                stateDelete.setString(1, tableName);
+                stateDelete.executeUpdate();
+            }
+            conn.commit();
+
+            System.out.printf("Kept      %-18s %10d rows, still referenced: %s\n", tableName, keys.size(), e.getMessage());
+            return;
+        }
+
+        System.out.printf("Deleted   %-18s %10d rows\n", tableName, keys.size());
+    }
+
+    private void saveFileState(String tableName, File file) throws SQLException {
+        try(PreparedStatement stateMerge = conn.prepareStatement(
+            "MERGE INTO CSV_FILE_STATE KEY(TBL) VALUES(?, ?, ?);")){
+
+            stateMerge.setString(1, tableName);
+            stateMerge.setLong(2, file.length());
+            stateMerge.setLong(3, file.lastModified());
+            stateMerge.executeUpdate();
+        }
+    }
+
+    private static String mergeSql(String tableName, List<String> columns, int[] pkCols){
+        StringBuilder sql = new StringBuilder("MERGE INTO " + tableName + " KEY(");
+        for(int i = 0; i < pkCols.length; i++){
+            sql.append(i == 0 ? "" : ", ").append(columns.get(pkCols[i]));
+        }
+        sql.append(") VALUES(");
+        for(int i = 0; i < columns.size(); i++){
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(");");
+
+        return sql.toString();
+    }
+
+    /**
+     * @return Update of every column but the key and the kept columns, by primary key
+     */
+    private static String updateSql(String tableName, List<String> columns, int[] pkCols, Set<Integer> kept){
+        StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
+        boolean first = true;
+        for(int i = 0; i < columns.size(); i++){
+            if(kept.contains(i) || isKey(pkCols, i)) continue;
+            sql.append(first ? "" : ", ").append(columns.get(i)).append(" = ?");
+            first = false;
+        }
+
+        return sql.append(keyCondition(columns, pkCols)).append(";").toString();
+    }
+
+    /**
+     * @return Insert of a whole row, skipped if its primary key exists
+     */
+    private static String insertSql(String tableName, List<String> columns, int[] pkCols){
+        StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " SELECT ");
+        for(int i = 0; i < columns.size(); i++){
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(" FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM ").append(tableName);
+
+        return sql.append(keyCondition(columns, pkCols)).append(");").toString();
+    }
+
+    /**
+     * @return Merge of a row's hash, if the table holds the row by primary key
+     *         with the same values in every column but the kept ones
+     */
+    private static String adoptSql(String tableName, List<String> columns, int[] pkCols, Set<Integer> kept){
+        StringBuilder sql = new StringBuilder("MERGE INTO CSV_ROW_HASH KEY(TBL, PK) SELECT ?, ?, ? FROM " + tableName);
+        sql.append(keyCondition(columns, pkCols));
+        for(int i = 0; i < columns.size(); i++){
+            if(kept.contains(i) || isKey(pkCols, i)) continue;
+            sql.append(" AND ").append(columns.get(i)).append(" IS NOT DISTINCT FROM ?");
+        }
+
+        return sql.append(";").toString();
+    }
+
+    private static String keyCondition(List<String> columns, int[] pkCols){
+        StringBuilder sql = new StringBuilder(" WHERE ");
+        for(int i = 0; i < pkCols.length; i++){
+            sql.append(i == 0 ? "" : " AND ").append(columns.get(pkCols[i])).append(" = ?");
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * Binds a whole row followed by its key, for insertSql.
+     */
+    private static void bindInsert(PreparedStatement insert, CsvReader csv, int[] types, int[] pkCols) throws SQLException {
+        BulkLoader.bindRow(insert, csv, types);
+        for(int i = 0; i < pkCols.length; i++){
+            BulkLoader.bindField(insert, types.length + i + 1, csv, pkCols[i], types[pkCols[i]]);
+        }
+    }
+
+    /**
+     * @return True if the apps give out the table's keys from a sequence
+     */
+    private static boolean sequenced(String tableName){
+        for(String[] seq : SchemaManager.SEQUENCES){
+            if(seq[1].equalsIgnoreCase(tableName)) return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isKey(int[] pkCols, int col){
+        for(int pk : pkCols){
+            if(pk == col) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Ordinals of the table's kept columns
+     */
+    private static Set<Integer> keptColumns(String tableName, List<String> columns){
+        Set<Integer> kept = new HashSet<Integer>();
+
+        for(String[] col : KEPT_COLUMNS){
+            if(col[0].equals(tableName)) kept.add(columns.indexOf(col[1]));
+        }
+
+        return kept;
+    }
+
+    /**
+     * @return FNV-1a hash of the first fields of the current csv record
+     */
+    private static long rowHash(CsvReader csv, int fields){
+        long hash = 0xCBF29CE484222325L;
+        for(int i = 0; i < fields; i++){
+            hash = csv.hashField(i, hash);
+        }
+
+        return hash;
+    }
+
+    private HashMap<String, Long> previousHashes(String tableName) throws SQLException {
+        HashMap<String, Long> hashes = new HashMap<String, Long>();
+
+        try(PreparedStatement pstmt = conn.prepareStatement(
+            "SELECT PK, HASH FROM CSV_ROW_HASH WHERE TBL = ?;")){
+            pstmt.setString(1, tableName);
+
+            try(ResultSet res = pstmt.executeQuery()){
+                while(res.next()){
+                    hashes.put(res.getString(1), res.getLong(2));
+                }
+            }
+        }
+
+        return hashes;
+    }
+
+    private static String primaryKeyString(CsvReader csv, int[] pkCols){
+        if(pkCols.length == 1) return csv.getString(pkCols[0]);
+
+        StringBuilder pk = new StringBuilder();
+        for(int i = 0; i < pkCols.length; i++){
+            if(i > 0) pk.append(PK_SEP);
+            pk.append(csv.getString(pkCols[i]));
+        }
+
+        return pk.toString();
+    }
+
+    /**
+     * @return Zero based ordinals of the table's primary key columns, in key order
+     */
+    private int[] primaryKey(String tableName) throws SQLException {
+        List<String> columns = columnNames(tableName);
+        ArrayList<int[]> keyCols = new ArrayList<int[]>();
+
+        try(ResultSet res = conn.getMetaData().getPrimaryKeys(null, null, tableName)){
+            while(res.next()){
+                keyCols.add(new int[]{res.getInt("KEY_SEQ"), columns.indexOf(res.getString("COLUMN_NAME"))});
+            }
+        }
+
+        if(keyCols.isEmpty()) throw new SQLException("Table " + tableName + " has no primary key");
+
+        keyCols.sort((a, b) -> a[0] - b[0]);
+        int[] ordinals = new int[keyCols.size()];
+        for(int i = 0; i < ordinals.length; i++){
+            ordinals[i] = keyCols.get(i)[1];
+        }
+
+        return ordinals;
+    }
+
+    private List<String> columnNames(String tableName) throws SQLException {
+        List<String> names = new ArrayList<String>();
+
+        try(ResultSet res = conn.getMetaData().getColumns(null, null, tableName, null)){
+            while(res.next()){
+                names.add(res.getString("COLUMN_NAME"));
+            }
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,307 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commits the baskets of many checkout lanes together. A lane hands its basket to
+ * submit() and waits; the committer collects baskets for up to a window of a few
+ * milliseconds after the first one arrives, or until it holds maxBaskets, writes
+ * them all in one database transaction on its own connection and releases every
+ * waiting lane at once. One log flush then covers the whole group.
+ *
+ * Each basket is written behind a savepoint, so a basket that fails is rolled back
+ * alone and only its lane is told. If the commit itself fails, every lane of the
+ * group is.
+ *
+ * Throughput, group sizes and the time lanes wait are kept for report().
+ */
+public class GroupCommitter {
+
+    /**
+     * Default time a group stays open after its first basket.
+     */
+    public static final int WINDOW_MS = 2;
+
+    /**
+     * Default largest group.
+     */
+    public static final int MAX_BASKETS = 32;
+
+    /**
+     * Work of one basket, written inside the group's transaction.
+     */
+    public interface Work {
+        /**
+         * Writes the basket, without committing.
+         *
+         * @param conn The committer's connection, autocommit is off
+         */
+        void write(Connection conn) throws SQLException;
+
+        /**
+         * Called once the group holding the basket has committed.
+         */
+        void committed();
+    }
+
+    /**
+     * A submitted basket waiting for its group to commit.
+     */
+    private static class Pending {
+        final Work work;
+        final long submitted = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean success;
+
+        Pending(Work work){
+            this.work = work;
+        }
+    }
+
+    /**
+     * Counts of values in power of two buckets.
+     */
+    static class Histogram {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void record(long value){
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(value, 0))]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        /**
+         * @param p A fraction between 0 and 1
+         * @return Upper bound of the bucket holding the p-th value
+         */
+        synchronized long percentile(double p){
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+
+            for(int i = 0; i < buckets.length; i++){
+                seen += buckets[i];
+                if(seen >= rank && seen > 0) return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+            }
+
+            return max;
+        }
+
+        synchronized String summary(String unit){
+            return String.format("avg %.1f%s, p50 %d%s, p99 %d%s, max %d%s", count == 0 ? 0.0 : (double) sum / count,
+                                 unit, percentile(0.5), unit, percentile(0.99), unit, max, unit);
+        }
+
+        /**
+         * @return One line per non empty bucket: upper bound and count
+         */
+        synchronized String buckets(String unit){
+            StringBuilder out = new StringBuilder();
+
+            for(int i = 0; i < buckets.length; i++){
+                if(buckets[i] == 0) continue;
+                out.append(String.format("\t<= %d%s\t%d\n", i == 0 ? 0 : (1L << i) - 1, unit, buckets[i]));
+            }
+
+            return out.toString();
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final long windowNanos;
+    private final int maxBaskets;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+    private final Thread worker;
+    private volatile boolean stopping;
+
+    private final Histogram groupSizes = new Histogram();
+    private final Histogram waitMicros = new Histogram();
+    private final long started = System.nanoTime();
+    private long commits;
+    private long baskets;
+    private long failed;
+
+    /**
+     * GroupCommitter constructor, the committer thread starts right away.
+     *
+     * @param pool Pool the committer takes its connection from, for as long as it runs
+     * @param windowMs Milliseconds a group stays open after its first basket
+     * @param maxBaskets Largest number of baskets committed together
+     */
+    public GroupCommitter(ConnectionPool pool, int windowMs, int maxBaskets){
+        this.pool = pool;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        this.maxBaskets = Math.max(1, maxBaskets);
+        this.worker = new Thread(this::drain, "group-committer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Hands a basket to the next group and waits for the group to commit.
+     *
+     * @param work The basket
+     * @return True if the basket was committed
+     */
+    public boolean submit(Work work){
+        if(stopping) return false;
+
+        Pending pending = new Pending(work);
+        queue.add(pending);
+
+        try{
+            // A basket queued while the committer stops is never written
+            while(!pending.done.await(100, TimeUnit.MILLISECONDS)){
+                if(!worker.isAlive()) return false;
+            }
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return pending.success;
+    }
+
+    /**
+     * Committer loop, opens a group with the first basket and closes it when the
+     * window ends or the group is full.
+     */
+    private void drain(){
+        ArrayList<Pending> group = new ArrayList<Pending>(maxBaskets);
+        Connection conn = null;
+
+        while(!stopping || !queue.isEmpty()){
+            try{
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+                group.add(first);
+
+                long deadline = first.submitted + windowNanos;
+                while(group.size() < maxBaskets){
+                    long left = deadline - System.nanoTime();
+                    if(left <= 0) break;
+
+                    Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if(next == null) break;
+                    group.add(next);
+                }
+                queue.drainTo(group, maxBaskets - group.size());
+            } catch(InterruptedException e){
+                break;
+            }
+
+            try{
+                if(conn == null){
+                    conn = pool.borrow();
+                    conn.setAutoCommit(false);
+                }
+
+                commit(conn, group);
+            } catch(SQLException e){
+                System.out.println("Group commit failed: " + e.getMessage());
+
+                // A broken connection is dropped by the pool
+                pool.release(conn);
+                conn = null;
+            }
+
+            finish(group);
+            group.clear();
+        }
+
+        for(Pending pending; (pending = queue.poll()) != null; ) pending.done.countDown();
+        pool.release(conn);
+    }
+
+    /**
+     * Writes every basket of a group behind its own savepoint and commits once.
+     */
+    private void commit(Connection conn, ArrayList<Pending> group) throws SQLException {
+        try{
+            for(Pending pending : group){
+                Savepoint savepoint = conn.setSavepoint();
+                int events = ReorderPipeline.savepoint();
+
+                try{
+                    pending.work.write(conn);
+                    pending.success = true;
+                } catch(SQLException e){
+                    conn.rollback(savepoint);
+                    ReorderPipeline.rollbackTo(events);
+                }
+            }
+
+            conn.commit();
+        } catch(SQLException e){
+            for(Pending pending : group) pending.success = false;
+            ReorderPipeline.rolledBack();
+            conn.rollback();
+            throw e;
+        }
+
+        ReorderPipeline.committed();
+
+        for(Pending pending : group){
+            if(pending.success) pending.work.committed();
+        }
+    }
+
+    /**
+     * Records a group in the statistics and releases its lanes.
+     */
+    private void finish(ArrayList<Pending> group){
+        long now = System.nanoTime();
+
+        synchronized(this){
+            commits++;
+            for(Pending pending : group){
+                if(pending.success) baskets++;
+                else failed++;
+            }
+        }
+
+        groupSizes.record(group.size());
+        for(Pending pending : group){
+            waitMicros.record((now - pending.submitted) / 1000);
+            pending.done.countDown();
+        }
+    }
+
+    /**
+     * @return One line of throughput, group size and wait time
+     */
+    public synchronized String summary(){
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        return String.format("%d baskets in %d commits, %d failed, %.1f baskets/s since start, group %s, wait %s",
+                             baskets, commits, failed, baskets / seconds, groupSizes.summary(""),
+                             waitMicros.summary("us"));
+    }
+
+    /**
+     * @return The summary followed by the group size and wait time histograms
+     */
+    public String report(){
+        return summary() + "\nGroup size:\n" + groupSizes.buckets("") + "Wait:\n" + waitMicros.buckets("us");
+    }
+
+    /**
+     * Commits whatever is queued, then stops the committer and returns its connection.
+     */
+    public void close(){
+        stopping = true;
+
+        try{
+            worker.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
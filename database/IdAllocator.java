@@ -0,0 +1,92 @@
+package database;
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids from a database sequence a block at a time. The sequence's
+ * increment is the block size: each NEXT VALUE reserves the value returned and
+ * the increment - 1 ids after it for this allocator alone, and those are then
+ * handed out with an atomic counter. Only the thread that finds the current
+ * block used up goes to the database.
+ *
+ * Ids of a block that is never used up, e.g. when the process exits, are skipped
+ * and never handed out by anyone.
+ */
+public class IdAllocator {
+
+    /**
+     * A reserved range of ids, from next up to but excluding end.
+     */
+    private static class Block {
+        final AtomicLong next;
+        final long end;
+
+        Block(long start, long end){
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private final String sequence;
+    private volatile Block block = new Block(0, 0);
+    private long increment;
+
+    /**
+     * IdAllocator constructor
+     *
+     * @param sequence Name of the sequence, as created by the SchemaManager
+     */
+    public IdAllocator(String sequence){
+        this.sequence = sequence;
+    }
+
+    /**
+     * @param conn Connection used when a new block has to be reserved
+     * @return An id no other caller of the sequence gets
+     */
+    public long next(Connection conn) throws SQLException {
+        for(;;){
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if(id < current.end) return id;
+
+            synchronized(this){
+                if(block == current) block = reserve(conn);
+            }
+        }
+    }
+
+    /**
+     * Reserves the next block of the sequence.
+     */
+    private Block reserve(Connection conn) throws SQLException {
+        if(increment == 0){
+            try(PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?;")){
+                pstmt.setString(1, sequence);
+
+                try(ResultSet res = pstmt.executeQuery()){
+                    if(!res.next()) throw new SQLException("Sequence " + sequence + " not found");
+                    increment = res.getLong(1);
+                }
+            }
+        }
+
+        try(PreparedStatement pstmt = conn.prepareStatement(nextValueSql(sequence));
+            ResultSet res = pstmt.executeQuery()){
+            res.next();
+
+            long start = res.getLong(1);
+            return new Block(start, start + increment);
+        }
+    }
+
+    /**
+     * @param sequence Name of the sequence
+     * @return Query for the sequence's next value
+     */
+    static String nextValueSql(String sequence){
+        return "SELECT NEXT VALUE FOR " + sequence + ";";
+    }
+}
@@ -138,6 +138,8 @@ public class MainDatabase{
 
         /**
          * Method to be executed on update of a row within the PROD_STORE table.
+         * Raises an out of stock event once, when the inventory drops to 0 or below,
+         * the reorder request itself is written by the ReorderPipeline.
          * 
          * @param conn The connection to the db
          * @param oldRow Before update
@@ -146,18 +148,8 @@ public class MainDatabase{
          */
         @Override
         public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
-            if ((Integer) newRow[3] <= 0) {
-                PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO REORDER_REQUEST VALUES(?, ?, ?, ?, ?, ?);");
-
-                stmt.setObject(1, null); // New key
-                stmt.setObject(2, null); // Shipment Date
-                stmt.setObject(3, newRow[2]); // Store ID
-                stmt.setObject(4, null); // Vendor ID TODO
-                stmt.setObject(5, newRow[0]); // UPC14
-                stmt.setInt(6, (int) (Math.random() * 1000)); // New Inv
-                
-                stmt.execute();
+            if ((Integer) newRow[3] <= 0 && (oldRow == null || (Integer) oldRow[3] > 0)) {
+                ReorderPipeline.enqueue(conn, (Integer) newRow[2], (String) newRow[0]);
             }
         }
 
@@ -172,89 +164,263 @@ public class MainDatabase{
         }
     }
 
-    public static void main(String[] args){
+    public static class ProductCatalogTrigger implements Trigger {
 
-        // Uses dummy user and password
-        // USERNAME: user PASSWORD: password
-        MainDatabase mainDB = new MainDatabase("./database/db", "user", "password");
+        static final String DELETE_SQL = "DELETE FROM PRODUCT_CATALOG WHERE UPC14 = ? AND TBL_ENUM = ?;";
+
+        private int tblEnum;
+
+        /**
+         * @param tblEnum The item table
+         * @return Statement copying one row of the table into PRODUCT_CATALOG
+         */
+        static String mergeSql(int tblEnum){
+            return "MERGE INTO PRODUCT_CATALOG(" + SchemaManager.CATALOG_COLUMNS + ") KEY(UPC14) " +
+                   SchemaManager.catalogSelect(tblEnum) + " WHERE UPC14 = ?;";
+        }
+
+        /**
+         * Finds which item table the trigger is installed on.
+         *
+         * @param tableName the name of the table
+         */
+        @Override
+        public void init(Connection conn, String schemaName,
+                String triggerName, String tableName, boolean before, int type) {
+            tblEnum = SchemaManager.catalogSource(tableName);
+        }
+
+        /**
+         * Method to be executed on every row change of an item table, copies the
+         * row into PRODUCT_CATALOG or removes it from there.
+         * 
+         * @param conn The connection to the db
+         * @param oldRow Before update or delete, null on insert
+         * @param newRow After insert or update, null on delete
+         * @throws SQLException
+         */
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+            if (oldRow != null && (newRow == null || !oldRow[0].equals(newRow[0]))) {
+                PreparedStatement delete = conn.prepareStatement(DELETE_SQL);
+                delete.setString(1, (String) oldRow[0]);
+                delete.setInt(2, tblEnum);
+                delete.executeUpdate();
+            }
+
+            if (newRow != null) {
+                PreparedStatement merge = conn.prepareStatement(mergeSql(tblEnum));
+                merge.setString(1, (String) newRow[0]);
+                merge.executeUpdate();
+            }
+        }
+
+        @Override
+        public void close() {
+            // ignore
+        }
+
+        @Override
+        public void remove() {
+            // ignore
+        }
+    }
 
+    public static class CatalogChangeTrigger implements Trigger {
+
+        @Override
+        public void init(Connection conn, String schemaName,
+                String triggerName, String tableName, boolean before, int type) {
+            // initialize the trigger object is necessary
+        }
+
+        /**
+         * Method to be executed after a statement changes the product tables or
+         * BRAND_DIS, forces the vendor index to reload.
+         * 
+         * @param conn The connection to the db
+         * @param oldRow Always null, statement level trigger
+         * @param newRow Always null, statement level trigger
+         */
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) {
+            VendorIndex.invalidate();
+        }
+
+        @Override
+        public void close() {
+            // ignore
+        }
+
+        @Override
+        public void remove() {
+            // ignore
+        }
+    }
+
+    /**
+     * Table definitions in creation order: name, csv source, field definitions.
+     */
+    static final String[][] TABLES = {
         // CUSTOMER table - Tracks customers
-        mainDB.createFillExecute("CUSTOMER", "./data/customer.csv",
-        "Customer_ID INT PRIMARY KEY auto_increment, FirstName VARCHAR(255), LastName VARCHAR(255), Phone CHAR(15)");
+        {"CUSTOMER", "./data/customer.csv",
+        "Customer_ID INT PRIMARY KEY auto_increment, FirstName VARCHAR(255), LastName VARCHAR(255), Phone CHAR(15)"},
 
         // STORES table - Tracks stores
-        mainDB.createFillExecute("STORES", "./data/stores.csv",
-        "Store_ID INT PRIMARY KEY auto_increment, Address VARCHAR(255), City VARCHAR(255), State VARCHAR(255), Zip CHAR(5)");
+        {"STORES", "./data/stores.csv",
+        "Store_ID INT PRIMARY KEY auto_increment, Address VARCHAR(255), City VARCHAR(255), State VARCHAR(255), Zip CHAR(5)"},
 
         // ITEMS table - Basic items
-        mainDB.createFillExecute("ITEMS", "./data/items.csv",
-        "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255)");
+        {"ITEMS", "./data/items.csv",
+        "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255)"},
 
         // BRANDS table - Tracks brands
-        mainDB.createFillExecute("BRANDS", "./data/brands.csv",
-        "brand_id INT PRIMARY KEY auto_increment, Name VARCHAR(255), No_of_items INT, Manufacturer VARCHAR(255)");
+        {"BRANDS", "./data/brands.csv",
+        "brand_id INT PRIMARY KEY auto_increment, Name VARCHAR(255), No_of_items INT, Manufacturer VARCHAR(255)"},
 
         // VENDORS table - Tracks vendors
-        mainDB.createFillExecute("VENDORS", "./data/vendors.csv",
-        "vendor_id INT PRIMARY KEY auto_increment, name VARCHAR(255)");
+        {"VENDORS", "./data/vendors.csv",
+        "vendor_id INT PRIMARY KEY auto_increment, name VARCHAR(255)"},
 
         // BRAND_DIS table - Connects brands to distributors 
-        mainDB.createFillExecute("BRAND_DIS", "./data/brand_distribution.csv",
-        "vendor_id INT, brand_id INT, PRIMARY KEY(vendor_id, brand_id)");
+        {"BRAND_DIS", "./data/brand_distribution.csv",
+        "vendor_id INT, brand_id INT, PRIMARY KEY(vendor_id, brand_id)"},
 
         // BEVERAGE table - Beverage items
-        mainDB.createFillExecute("BEVERAGE", "./data/beverage.csv",
+        {"BEVERAGE", "./data/beverage.csv",
         "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255), calories INT, storage VARCHAR(255), " + 
-        "allergens VARCHAR(255), weight INT, alcoholic BOOLEAN");
+        "allergens VARCHAR(255), weight INT, alcoholic BOOLEAN"},
 
         // FOODS table - Food items
-        mainDB.createFillExecute("FOODS", "./data/foods.csv",
+        {"FOODS", "./data/foods.csv",
         "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255), calories INT, storage VARCHAR(255)," + 
-        " allergens VARCHAR(255), weight INT");
+        " allergens VARCHAR(255), weight INT"},
 
         // PHARMA table - Pharma items
-        mainDB.createFillExecute("PHARMA", "./data/pharma.csv",
-        "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255), otc BOOLEAN");
+        {"PHARMA", "./data/pharma.csv",
+        "upc14 CHAR(14) PRIMARY KEY, brand_id INT, name VARCHAR(255), otc BOOLEAN"},
 
         // TRANSACTIONS table
-        mainDB.createFillExecute("TRANSACTIONS", "./data/transaction.csv",
-        "Transaction_ID LONG auto_increment, TimeStamp TIMESTAMP, Store_ID INT, Customer_ID INT, PRIMARY KEY(Transaction_ID, TimeStamp, Customer_ID)");
+        {"TRANSACTIONS", "./data/transaction.csv",
+        "Transaction_ID LONG auto_increment, TimeStamp TIMESTAMP, Store_ID INT, Customer_ID INT, PRIMARY KEY(Transaction_ID, TimeStamp, Customer_ID)"},
 
-        mainDB.createFillExecute("PROD_TRANSACTIONS", "./data/prod_transaction.csv",
-        "Transaction_ID LONG, upc14 CHAR(14), quantity INT, PRIMARY KEY(Transaction_ID, upc14)");        
+        {"PROD_TRANSACTIONS", "./data/prod_transaction.csv",
+        "Transaction_ID LONG, upc14 CHAR(14), quantity INT, PRIMARY KEY(Transaction_ID, upc14)"},
 
         // PRODSTORE table - Relates products to individual stores 
-        mainDB.createFillExecute("PROD_STORE", "./data/prod_store.csv",
-        "upc14 CHAR(14), tbl_enum INT, store_id INT, inventory INT, price DECIMAL(7,2), PRIMARY KEY(upc14, store_id)");
+        {"PROD_STORE", "./data/prod_store.csv",
+        "upc14 CHAR(14), tbl_enum INT, store_id INT, inventory INT, price DECIMAL(7,2), PRIMARY KEY(upc14, store_id)"},
 
-        mainDB.createFillExecute("REORDER_REQUEST", "./data/reorder_req.csv",
-        "request_ID INT PRIMARY KEY auto_increment, shipment_date TIMESTAMP, store_ID INT, vendor_ID INT, upc_14 CHAR(14), quantity INT");
+        {"REORDER_REQUEST", "./data/reorder_req.csv",
+        "request_ID INT PRIMARY KEY auto_increment, shipment_date TIMESTAMP, store_ID INT, vendor_ID INT, upc_14 CHAR(14), quantity INT"}
+    };
 
-        // Add foreign keys
+    /**
+     * Foreign keys added once every table is filled: table, field, ref table, ref field.
+     */
+    static final String[][] FOREIGN_KEYS = {
+        {"ITEMS", "brand_id", "BRANDS", "brand_id"},
 
-        mainDB.addForeignKey("ITEMS", "brand_id", "BRANDS", "brand_id");
+        {"BRAND_DIS", "brand_id", "BRANDS", "brand_id"},
+        {"BRAND_DIS", "vendor_id", "VENDORS", "vendor_id"},
 
-        mainDB.addForeignKey("BRAND_DIS", "brand_id", "BRANDS", "brand_id");
-        mainDB.addForeignKey("BRAND_DIS", "vendor_id", "VENDORS", "vendor_id");
+        {"BEVERAGE", "brand_id", "BRANDS", "brand_id"},
 
-        mainDB.addForeignKey("BEVERAGE", "brand_id", "BRANDS", "brand_id");
+        {"FOODS", "brand_id", "BRANDS", "brand_id"},
 
-        mainDB.addForeignKey("FOODS", "brand_id", "BRANDS", "brand_id");
+        {"PHARMA", "brand_id", "BRANDS", "brand_id"},
 
-        mainDB.addForeignKey("PHARMA", "brand_id", "BRANDS", "brand_id");
+        {"TRANSACTIONS", "Store_ID", "STORES", "Store_ID"},
+        {"TRANSACTIONS", "Customer_ID", "CUSTOMER", "Customer_ID"},
 
-        mainDB.addForeignKey("TRANSACTIONS", "Store_ID", "STORES", "Store_ID");
-        mainDB.addForeignKey("TRANSACTIONS", "Customer_ID", "CUSTOMER", "Customer_ID");
+        {"PROD_TRANSACTIONS", "Transaction_ID", "TRANSACTIONS", "Transaction_ID"},
 
-        mainDB.addForeignKey("PROD_TRANSACTIONS", "Transaction_ID", "TRANSACTIONS", "Transaction_ID");
+        {"PROD_STORE", "store_id", "STORES", "Store_ID"},
 
-        mainDB.addForeignKey("PROD_STORE", "store_id", "STORES", "Store_ID");
+        {"REORDER_REQUEST", "store_ID", "STORES", "Store_ID"},
+        {"REORDER_REQUEST", "vendor_ID", "VENDORS", "vendor_id"}
+    };
 
-        mainDB.addForeignKey("REORDER_REQUEST", "store_ID", "STORES", "Store_ID");
-        mainDB.addForeignKey("REORDER_REQUEST", "vendor_ID", "VENDORS", "vendor_id");
+    /**
+     * Installs the restock and catalog change triggers.
+     */
+    public void addTriggers(){
+        addTrigger("CREATE TRIGGER INV_RESTOCK AFTER UPDATE ON PROD_STORE " +
+                   "FOR EACH ROW CALL \"" + MainDatabase.RestockTrigger.class.getName() + "\"");
+
+        // Reload the vendor index whenever a product's brand or a brand's distributor changes
+        for (String table : new String[]{"BRAND_DIS", "ITEMS", "FOODS", "BEVERAGE", "PHARMA"}) {
+            addTrigger("CREATE TRIGGER VENDOR_IDX_" + table + " AFTER INSERT, UPDATE, DELETE ON " + table + " " +
+                       "CALL \"" + MainDatabase.CatalogChangeTrigger.class.getName() + "\"");
+        }
+    }
+
+    /**
+     * Usage: java database.MainDatabase [bulk [threads] | delta]
+     * 
+     * Without arguments every table is created with CSVREAD one after another, 
+     * bulk loads the csv files in parallel through the BulkLoader and delta
+     * re-imports only the changed csv rows into an existing database.
+     */
+    public static void main(String[] args){
+
+        // Uses dummy user and password
+        // USERNAME: user PASSWORD: password
+        MainDatabase mainDB = new MainDatabase("./database/db", "user", "password");
+
+        if (args.length > 0 && args[0].equals("delta")) {
+            try {
+                DeltaImport delta = new DeltaImport(mainDB.conn);
+                delta.run(TABLES);
+
+                // Imported customers may have taken ids the sequence would hand out
+                if (delta.changed("CUSTOMER")) {
+                    new SchemaManager(mainDB.conn).createSequences();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            mainDB.closeConnection();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("bulk")) {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+            try {
+                new BulkLoader("./database/db", "user", "password", threads).load(TABLES, FOREIGN_KEYS);
+            } catch (Exception e) {
+                e.printStackTrace();
+                mainDB.closeConnection();
+                System.exit(1);
+            }
+        } else {
+            for (String[] table : TABLES) {
+                mainDB.createFillExecute(table[0], table[1], table[2]);
+            }
+
+            // Add foreign keys
+            for (String[] fk : FOREIGN_KEYS) {
+                mainDB.addForeignKey(fk[0], fk[1], fk[2], fk[3]);
+            }
+        }
+
+        // Record what was loaded, so the first delta run only writes what changed since
+        try {
+            new DeltaImport(mainDB.conn).seed(TABLES);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // Product catalog, sales rollup, id sequences and secondary indexes for the apps
+        try {
+            new SchemaManager(mainDB.conn).apply();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
 
-        mainDB.addTrigger("CREATE TRIGGER INV_RESTOCK AFTER UPDATE ON PROD_STORE " +
-                          "FOR EACH ROW CALL \"" + MainDatabase.RestockTrigger.class.getName() + "\"");
+        mainDB.addTriggers();
 
         // Done
         mainDB.closeConnection();
@@ -0,0 +1,344 @@
+package database;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory copy of a single store's PROD_STORE rows along with each product's
+ * name. Keys are UPC14 codes packed into a long, values are held in parallel
+ * primitive arrays behind an open addressing table.
+ *
+ * Checkout and restock write through to the cache after their database update
+ * commits, so register lookups do not need to query PROD_STORE. In journal mode
+ * checkout takes its stock from the cache first and the database follows.
+ *
+ * Restocks and edits made by other processes do not reach the cache, so its
+ * inventory is a hint: checkout reads a product's row again with refresh() when
+ * the cached inventory is short of a line, or the entry is older than MAX_AGE_MS.
+ */
+public class ProductCache {
+
+    /**
+     * Returned by the value getters when the product is not cached.
+     */
+    public static final int ABSENT = Integer.MIN_VALUE;
+
+    /**
+     * Age after which a product's price and inventory are read again.
+     */
+    public static final long MAX_AGE_MS = 30000;
+
+    private static final ConcurrentHashMap<Integer, ProductCache> stores =
+        new ConcurrentHashMap<Integer, ProductCache>();
+
+    static final String LOAD_SQL =
+        "SELECT PS.UPC14, PS.INVENTORY, PS.PRICE, PC.NAME " +
+        "FROM PROD_STORE PS " +
+        "LEFT JOIN PRODUCT_CATALOG PC ON PC.UPC14 = PS.UPC14 " +
+        "WHERE PS.STORE_ID = ?;";
+
+    static final String ROW_SQL = "SELECT INVENTORY, PRICE FROM PROD_STORE WHERE UPC14 = ? AND STORE_ID = ?;";
+
+    private final int storeID;
+
+    // 0 marks an empty slot, 00000000000000 is never packed
+    private long[] keys;
+    private int[] priceCents;
+    private int[] inventory;
+    private long[] readAt;
+    private String[] names;
+    private int size;
+
+    private ProductCache(int storeID, int expected){
+        this.storeID = storeID;
+        allocate(tableSize(expected));
+    }
+
+    /**
+     * Returns the cache of a store, loading it with a single query on first use.
+     *
+     * @param conn Connection used if the store has to be loaded
+     * @param storeID The store id
+     * @return The store's cache
+     */
+    public static ProductCache forStore(Connection conn, int storeID) throws SQLException {
+        ProductCache cache = stores.get(storeID);
+        if(cache != null) return cache;
+
+        synchronized(stores){
+            cache = stores.get(storeID);
+            if(cache == null){
+                cache = load(conn, storeID);
+                stores.put(storeID, cache);
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the cache of a store only if it has already been loaded.
+     *
+     * @param storeID The store id
+     * @return The store's cache or null
+     */
+    public static ProductCache ifLoaded(int storeID){
+        return stores.get(storeID);
+    }
+
+    /**
+     * Packs a 14 digit UPC into a long.
+     *
+     * @param upc14 The product code
+     * @return The packed code, or 0 if the code is not 14 digits
+     */
+    public static long pack(String upc14){
+        if(upc14 == null || upc14.length() != 14) return 0;
+
+        long key = 0;
+        for(int i = 0; i < 14; i++){
+            char c = upc14.charAt(i);
+            if(c < '0' || c > '9') return 0;
+            key = key * 10 + (c - '0');
+        }
+
+        return key;
+    }
+
+    /**
+     * Unpacks a long back into its zero padded 14 digit UPC.
+     *
+     * @param key The packed code
+     * @return The product code
+     */
+    public static String unpack(long key){
+        char[] digits = new char[14];
+        for(int i = 13; i >= 0; i--){
+            digits[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+
+        return new String(digits);
+    }
+
+    /**
+     * Converts a DECIMAL(7,2) price into cents.
+     *
+     * @param price The database price
+     * @return The price in cents
+     */
+    public static int toCents(BigDecimal price){
+        return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().intValue();
+    }
+
+    private static ProductCache load(Connection conn, int storeID) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(LOAD_SQL);
+        pstmt.setInt(1, storeID);
+
+        ResultSet res = pstmt.executeQuery();
+        ProductCache cache = new ProductCache(storeID, 1024);
+
+        while(res.next()){
+            long key = pack(res.getString(1));
+            if(key == 0) continue;
+
+            cache.put(key, toCents(res.getBigDecimal(3)), res.getInt(2), res.getString(4));
+        }
+
+        return cache;
+    }
+
+    /**
+     * @return The store this cache belongs to
+     */
+    public int getStoreID(){
+        return storeID;
+    }
+
+    /**
+     * @return Number of cached products
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Adds or replaces a product.
+     *
+     * @param key The packed UPC14
+     * @param cents The price in cents
+     * @param inv The inventory
+     * @param name The product name, may be null
+     */
+    public synchronized void put(long key, int cents, int inv, String name){
+        if(key == 0) return;
+
+        if((size + 1) * 2 > keys.length) rehash();
+
+        int slot = probe(key);
+        if(keys[slot] == 0){
+            keys[slot] = key;
+            size++;
+        }
+
+        priceCents[slot] = cents;
+        inventory[slot] = inv;
+        readAt[slot] = System.currentTimeMillis();
+        names[slot] = name;
+    }
+
+    /**
+     * Reads a product's price and inventory again.
+     *
+     * @param conn Connection to the database
+     * @param key The packed UPC14
+     * @param held Units taken from the cache that the database does not hold yet
+     * @return False if the store does not sell the product
+     */
+    public boolean refresh(Connection conn, long key, int held) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(ROW_SQL);
+        pstmt.setString(1, unpack(key));
+        pstmt.setInt(2, storeID);
+
+        ResultSet res = pstmt.executeQuery();
+        if(!res.next()) return false;
+
+        put(key, toCents(res.getBigDecimal(2)), res.getInt(1) - held, name(key));
+        return true;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return True if the product is not cached or was read more than MAX_AGE_MS ago
+     */
+    public synchronized boolean stale(long key){
+        int slot = probe(key);
+        return key == 0 || keys[slot] != key || System.currentTimeMillis() - readAt[slot] > MAX_AGE_MS;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return True if the product is cached
+     */
+    public synchronized boolean contains(long key){
+        return key != 0 && keys[probe(key)] == key;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return The inventory, or ABSENT
+     */
+    public synchronized int inventory(long key){
+        int slot = probe(key);
+        return key != 0 && keys[slot] == key ? inventory[slot] : ABSENT;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return The price in cents, or ABSENT
+     */
+    public synchronized int priceCents(long key){
+        int slot = probe(key);
+        return key != 0 && keys[slot] == key ? priceCents[slot] : ABSENT;
+    }
+
+    /**
+     * @param key The packed UPC14
+     * @return The product name, or null
+     */
+    public synchronized String name(long key){
+        int slot = probe(key);
+        return key != 0 && keys[slot] == key ? names[slot] : null;
+    }
+
+    /**
+     * Applies a committed inventory change, products that are not cached are ignored.
+     *
+     * @param key The packed UPC14
+     * @param delta Amount added to the inventory, negative for sales
+     */
+    public synchronized void adjustInventory(long key, int delta){
+        int slot = probe(key);
+        if(key != 0 && keys[slot] == key) inventory[slot] += delta;
+    }
+
+    /**
+     * Takes up to qty units of a product off the cached inventory.
+     *
+     * @param key The packed UPC14
+     * @param qty Amount wanted
+     * @return Amount taken, 0 if the product is sold out or not cached
+     */
+    public synchronized int take(long key, int qty){
+        int slot = probe(key);
+        if(key == 0 || keys[slot] != key) return 0;
+
+        int taken = Math.max(0, Math.min(qty, inventory[slot]));
+        inventory[slot] -= taken;
+
+        return taken;
+    }
+
+    /**
+     * Replaces a cached inventory with the one just read from the database,
+     * products that are not cached are ignored.
+     *
+     * @param key The packed UPC14
+     * @param inv The inventory
+     */
+    public synchronized void setInventory(long key, int inv){
+        int slot = probe(key);
+        if(key != 0 && keys[slot] == key) inventory[slot] = inv;
+    }
+
+    /**
+     * Finds the slot holding the key or the empty slot it would be placed in.
+     */
+    private int probe(long key){
+        int mask = keys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+        while(keys[slot] != 0 && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash(){
+        long[] oldKeys = keys;
+        int[] oldPrice = priceCents;
+        int[] oldInv = inventory;
+        long[] oldRead = readAt;
+        String[] oldNames = names;
+
+        allocate(oldKeys.length * 2);
+
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == 0) continue;
+
+            int slot = probe(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            priceCents[slot] = oldPrice[i];
+            inventory[slot] = oldInv[i];
+            readAt[slot] = oldRead[i];
+            names[slot] = oldNames[i];
+        }
+    }
+
+    private void allocate(int capacity){
+        keys = new long[capacity];
+        priceCents = new int[capacity];
+        inventory = new int[capacity];
+        readAt = new long[capacity];
+        names = new String[capacity];
+    }
+
+    private static int tableSize(int expected){
+        int capacity = 16;
+        while(capacity < expected * 2) capacity <<= 1;
+        return capacity;
+    }
+}
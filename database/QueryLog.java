@@ -0,0 +1,457 @@
+package database;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records every statement run on the connections of a ConnectionPool with its
+ * latency, the rows it returned or changed and the app method that ran it.
+ *
+ * Statements handed out by the pool are wrapped in proxies that time each
+ * execute call, and result sets in proxies that count the rows read and add the
+ * time spent fetching them. An execution is recorded once its result set is read
+ * to the end or closed, or its statement is executed or handed out by the pool
+ * again. Lookups reading one row of a cached statement are therefore recorded on
+ * the next prepare of their text; of the executions still open past MAX_OPEN,
+ * e.g. on plain statements never closed, the oldest is recorded as it stands.
+ *
+ * Executions slower than querylog.slowMs (default 50) milliseconds are appended
+ * to the log file as SLOW lines as they happen, and on close one STAT line per
+ * statement text sums up the run. The file is rolled to file.1 once it passes
+ * ROLL_SIZE. Lines are tab separated:
+ *
+ * SLOW time ms rows callsite sql
+ * STAT time count total_ms max_ms rows callsite sql
+ *
+ * The call site is taken from the first execution of each statement text.
+ * Running with -Dquerylog.disabled=true hands out the plain statements.
+ */
+public class QueryLog {
+
+    public static final boolean ENABLED = !Boolean.getBoolean("querylog.disabled");
+
+    /**
+     * Executions taking at least this many milliseconds are logged.
+     */
+    public static final long SLOW_MS = Long.getLong("querylog.slowMs", 50);
+
+    /**
+     * Size in bytes past which the log file is rolled.
+     */
+    public static final long ROLL_SIZE = 1 << 20;
+
+    /**
+     * Slow executions kept in memory.
+     */
+    public static final int RECENT_SIZE = 100;
+
+    /**
+     * Distinct statement texts summed up, ad hoc statements past it are only
+     * checked against the slow threshold.
+     */
+    public static final int MAX_STATEMENTS = 1000;
+
+    /**
+     * Executions waiting for their rows to be read.
+     */
+    public static final int MAX_OPEN = 256;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Totals of one statement text.
+     */
+    private static class Stats {
+        final String text;
+        final String site;
+        long count;
+        long nanos;
+        long maxNanos;
+        long rows;
+
+        Stats(String text, String site){
+            this.text = text;
+            this.site = site;
+        }
+    }
+
+    /**
+     * One execution, open until its rows have been read.
+     */
+    private class Execution {
+        final Statement statement;
+        final String sql;
+        final Stats stats;
+        long nanos;
+        long rows;
+        boolean done;
+
+        Execution(Statement statement, String sql, long nanos){
+            this.statement = statement;
+            this.sql = sql;
+            this.stats = stats(sql);
+            this.nanos = nanos;
+        }
+
+        void finish(){
+            synchronized(this){
+                if(done) return;
+                done = true;
+            }
+
+            synchronized(open){
+                open.remove(statement, this);
+            }
+            record(this);
+        }
+    }
+
+    /**
+     * Invocation handler behind every logged statement.
+     */
+    private class LoggedStatement implements InvocationHandler {
+        private final Statement raw;
+        private final String sql;
+        private Execution last;
+
+        LoggedStatement(Statement raw, String sql){
+            this.raw = raw;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if(name.startsWith("execute")){
+                if(last != null) last.finish();
+
+                String text = sql != null ? sql : args != null && args.length > 0 && args[0] instanceof String
+                                                  ? (String) args[0] : "batch";
+
+                long start = System.nanoTime();
+                Object result = call(raw, method, args);
+                last = new Execution(raw, text, System.nanoTime() - start);
+
+                if(result instanceof ResultSet){
+                    return wrap((ResultSet) result, last);
+                }
+                if(Boolean.TRUE.equals(result)){
+                    // Rows are counted once the result set is asked for
+                    opened(last);
+                    return result;
+                }
+
+                last.rows = updated(result, raw);
+                last.finish();
+                return result;
+            }
+            if(name.equals("getResultSet") && last != null && !last.done){
+                ResultSet res = (ResultSet) call(raw, method, args);
+                return res == null ? null : wrap(res, last);
+            }
+            if(name.equals("close") && last != null){
+                last.finish();
+            }
+
+            return call(raw, method, args);
+        }
+    }
+
+    /**
+     * Invocation handler behind every result set of a logged statement.
+     */
+    private class LoggedResultSet implements InvocationHandler {
+        private final ResultSet raw;
+        private final Execution execution;
+
+        LoggedResultSet(ResultSet raw, Execution execution){
+            this.raw = raw;
+            this.execution = execution;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if(name.equals("next")){
+                long start = System.nanoTime();
+                boolean more = (Boolean) call(raw, method, args);
+                execution.nanos += System.nanoTime() - start;
+
+                if(more) execution.rows++;
+                else execution.finish();
+                return more;
+            }
+            if(name.equals("close")){
+                execution.finish();
+            }
+
+            return call(raw, method, args);
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+    private final LinkedHashMap<Statement, Execution> open = new LinkedHashMap<Statement, Execution>();
+    private final ArrayDeque<String> recent = new ArrayDeque<String>(RECENT_SIZE);
+
+    /**
+     * QueryLog constructor, nothing is written before the first slow statement.
+     *
+     * @param file Path of the log file
+     */
+    public QueryLog(String file){
+        this.file = Paths.get(file);
+    }
+
+    /**
+     * @return Path of the log file
+     */
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * @param stmt A statement, prepared or not
+     * @param sql The text it was prepared with, null for a plain statement
+     * @return The statement recording its executions in this log
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Statement> T wrap(T stmt, String sql){
+        if(!ENABLED) return stmt;
+
+        // A cached statement handed out again is done with its last execution
+        Execution previous;
+        synchronized(open){
+            previous = open.get(stmt);
+        }
+        if(previous != null) previous.finish();
+
+        Class<?> type = stmt instanceof java.sql.CallableStatement ? java.sql.CallableStatement.class
+                        : stmt instanceof java.sql.PreparedStatement ? java.sql.PreparedStatement.class
+                        : Statement.class;
+
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                                          new LoggedStatement(stmt, sql));
+    }
+
+    private ResultSet wrap(ResultSet res, Execution execution){
+        opened(execution);
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                                                  new LoggedResultSet(res, execution));
+    }
+
+    /**
+     * Keeps an execution open until its rows are read, recording the oldest open
+     * execution once more than MAX_OPEN are.
+     */
+    private void opened(Execution execution){
+        Execution replaced;
+        Execution oldest = null;
+
+        synchronized(open){
+            replaced = open.put(execution.statement, execution);
+            if(open.size() > MAX_OPEN) oldest = open.values().iterator().next();
+        }
+
+        if(replaced != null && replaced != execution) replaced.finish();
+        if(oldest != null) oldest.finish();
+    }
+
+    /**
+     * @return The totals of a statement text, created on its first execution by
+     *         the calling thread, null once MAX_STATEMENTS texts are summed up
+     */
+    private Stats stats(String sql){
+        Stats s = stats.get(sql);
+        if(s == null && stats.size() < MAX_STATEMENTS){
+            s = stats.computeIfAbsent(sql, text -> new Stats(oneLine(text), callSite()));
+        }
+        return s;
+    }
+
+    /**
+     * Adds a finished execution to its statement's totals and logs it if slow.
+     */
+    private void record(Execution execution){
+        Stats s = execution.stats;
+        String text = s != null ? s.text : oneLine(execution.sql);
+        String site = s != null ? s.site : "unknown";
+
+        if(s != null){
+            synchronized(s){
+                s.count++;
+                s.nanos += execution.nanos;
+                s.maxNanos = Math.max(s.maxNanos, execution.nanos);
+                s.rows += execution.rows;
+            }
+        }
+
+        if(execution.nanos >= SLOW_MS * 1000000){
+            String line = String.format("SLOW\t%s\t%.1f\t%d\t%s\t%s", LocalDateTime.now().format(TIME),
+                                        execution.nanos / 1e6, execution.rows, site, text);
+            synchronized(recent){
+                if(recent.size() == RECENT_SIZE) recent.removeFirst();
+                recent.addLast(line);
+            }
+            append(Collections.singletonList(line));
+        }
+    }
+
+    /**
+     * @return The slow executions of this process, oldest first
+     */
+    public List<String> recent(){
+        synchronized(recent){
+            return new ArrayList<String>(recent);
+        }
+    }
+
+    /**
+     * Records the executions still open and writes the totals of this run.
+     */
+    public void close(){
+        List<Execution> pending;
+        synchronized(open){
+            pending = new ArrayList<Execution>(open.values());
+        }
+        for(Execution execution : pending) execution.finish();
+
+        String now = LocalDateTime.now().format(TIME);
+        List<String> lines = new ArrayList<String>();
+
+        for(Stats s : stats.values()){
+            synchronized(s){
+                lines.add(String.format("STAT\t%s\t%d\t%.1f\t%.1f\t%d\t%s\t%s", now, s.count, s.nanos / 1e6,
+                                        s.maxNanos / 1e6, s.rows, s.site, s.text));
+            }
+        }
+
+        append(lines);
+    }
+
+    private synchronized void append(List<String> lines){
+        if(lines.isEmpty()) return;
+
+        try{
+            if(Files.exists(file) && Files.size(file) > ROLL_SIZE){
+                Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param file Path of a log file
+     * @param n Number of lines
+     * @return The last n SLOW lines of the file
+     */
+    public static List<String> slow(Path file, int n) throws IOException {
+        ArrayDeque<String> last = new ArrayDeque<String>(n);
+
+        for(String line : read(file)){
+            if(!line.startsWith("SLOW\t")) continue;
+            if(last.size() == n) last.removeFirst();
+            last.addLast(line);
+        }
+
+        return new ArrayList<String>(last);
+    }
+
+    /**
+     * Sums up the STAT lines of a log file and its rolled file per statement.
+     *
+     * @param file Path of a log file
+     * @param n Number of statements
+     * @return Lines of count, total ms, max ms, rows, call site and statement of
+     *         the n statements with the most total time
+     */
+    public static List<String[]> top(Path file, int n) throws IOException {
+        Map<String, String[]> totals = new HashMap<String, String[]>();
+
+        List<String> lines = new ArrayList<String>(read(Paths.get(file + ".1")));
+        lines.addAll(read(file));
+
+        for(String line : lines){
+            String[] f = line.split("\t", 8);
+            if(f.length < 8 || !f[0].equals("STAT")) continue;
+
+            String[] t = totals.get(f[7]);
+            if(t == null){
+                totals.put(f[7], new String[]{f[2], f[3], f[4], f[5], f[6], f[7]});
+                continue;
+            }
+
+            t[0] = String.valueOf(Long.parseLong(t[0]) + Long.parseLong(f[2]));
+            t[1] = String.format("%.1f", Double.parseDouble(t[1]) + Double.parseDouble(f[3]));
+            t[2] = String.format("%.1f", Math.max(Double.parseDouble(t[2]), Double.parseDouble(f[4])));
+            t[3] = String.valueOf(Long.parseLong(t[3]) + Long.parseLong(f[5]));
+        }
+
+        List<String[]> sorted = new ArrayList<String[]>(totals.values());
+        sorted.sort((a, b) -> Double.compare(Double.parseDouble(b[1]), Double.parseDouble(a[1])));
+
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    private static List<String> read(Path file) throws IOException {
+        if(!Files.exists(file)) return Collections.emptyList();
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private static String oneLine(String sql){
+        return sql.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * @return Class, method and line of the first frame outside the pool and JDBC
+     */
+    private static String callSite(){
+        for(StackTraceElement frame : new Throwable().getStackTrace()){
+            String cls = frame.getClassName();
+
+            if(cls.startsWith("database.QueryLog") || cls.startsWith("database.ConnectionPool")
+               || cls.startsWith("database.StatementCache") || cls.startsWith("java.") || cls.startsWith("jdk.")
+               || cls.startsWith("sun.") || cls.startsWith("org.h2.") || cls.contains("$Proxy")){
+                continue;
+            }
+
+            return cls.substring(cls.lastIndexOf('.') + 1) + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+        }
+
+        return "unknown";
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e){
+            throw e.getCause();
+        }
+    }
+
+    private static long updated(Object result, Statement stmt) throws Exception {
+        if(result instanceof Number) return Math.max(0, ((Number) result).longValue());
+
+        long rows = 0;
+        if(result instanceof int[]) for(int count : (int[]) result) rows += Math.max(0, count);
+        else if(result instanceof long[]) for(long count : (long[]) result) rows += Math.max(0, count);
+        else if(Boolean.FALSE.equals(result)) rows = Math.max(0, stmt.getUpdateCount());
+
+        return rows;
+    }
+}
@@ -0,0 +1,339 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background stage that turns out of stock events raised by the restock trigger
+ * into REORDER_REQUEST rows. Events are de-duplicated per (store, upc14) while
+ * queued and against requests already in the table, then inserted in batches on
+ * a pooled connection so the checkout transaction never waits on reorder writes.
+ *
+ * Each request is addressed to the vendor found through the VendorIndex and asks
+ * for enough units to cover COVER_DAYS of the product's sales over the last
+ * VELOCITY_DAYS at that store, computed with one query per batch against the
+ * SALES_DAILY rollup.
+ *
+ * The trigger fires inside the writer's transaction, so its events are held by
+ * the writing thread until the writer calls committed(), and dropped by
+ * rolledBack() or rollbackTo() for a savepoint. The velocity query then sees the
+ * sale that emptied the shelf. Events raised in autocommit mode are queued right
+ * away. A batch that fails is kept and written again after RETRY_MS.
+ *
+ * When no pipeline is running, for example while the admin console updates
+ * PROD_STORE, the trigger falls back to inserting the request itself with the
+ * minimum quantity.
+ */
+public class ReorderPipeline {
+
+    /**
+     * Largest number of requests inserted by a single batch.
+     */
+    public static final int BATCH_SIZE = 256;
+
+    /**
+     * Days of sales history used to measure a product's velocity.
+     */
+    public static final int VELOCITY_DAYS = 28;
+
+    /**
+     * Days of sales a reorder should cover.
+     */
+    public static final int COVER_DAYS = 14;
+
+    /**
+     * Smallest quantity ever requested.
+     */
+    public static final int MIN_QUANTITY = 10;
+
+    /**
+     * Milliseconds before a failed batch is written again.
+     */
+    public static final int RETRY_MS = 1000;
+
+    static final String INSERT_SQL =
+        "INSERT INTO REORDER_REQUEST(SHIPMENT_DATE, STORE_ID, VENDOR_ID, UPC_14, QUANTITY) " +
+        "SELECT NULL, ?, ?, ?, ? FROM DUAL WHERE NOT EXISTS " +
+        "(SELECT 1 FROM REORDER_REQUEST WHERE STORE_ID = ? AND UPC_14 = ?);";
+
+    /**
+     * A single out of stock event.
+     */
+    private static class Event {
+        final int storeID;
+        final String upc14;
+
+        Event(int storeID, String upc14){
+            this.storeID = storeID;
+            this.upc14 = upc14;
+        }
+
+        String key(){
+            return storeID + ":" + upc14;
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static ReorderPipeline running;
+
+    // Events of the thread's open transaction
+    private static final ThreadLocal<ArrayList<Event>> held = ThreadLocal.withInitial(ArrayList::new);
+
+    private final ConnectionPool pool;
+    private final LinkedBlockingQueue<Event> queue;
+    private final Set<String> pending;
+    private final Thread worker;
+    private volatile boolean stopping;
+
+    private ReorderPipeline(ConnectionPool pool){
+        this.pool = pool;
+        this.queue = new LinkedBlockingQueue<Event>();
+        this.pending = ConcurrentHashMap.newKeySet();
+        this.worker = new Thread(this::drain, "reorder-pipeline");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts the pipeline for this process, a running pipeline is left as is.
+     *
+     * @param pool Pool the background inserts borrow their connection from
+     */
+    public static void start(ConnectionPool pool){
+        synchronized(lock){
+            if(running != null) return;
+
+            running = new ReorderPipeline(pool);
+            running.worker.start();
+        }
+    }
+
+    /**
+     * Stops the pipeline after every queued event has been written.
+     */
+    public static void stop(){
+        ReorderPipeline pipeline;
+
+        synchronized(lock){
+            pipeline = running;
+            running = null;
+        }
+
+        if(pipeline == null) return;
+
+        pipeline.stopping = true;
+        try{
+            pipeline.worker.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Raises an out of stock event for a product at a store. Called from the trigger.
+     *
+     * @param conn The trigger's connection, only used when no pipeline is running
+     * @param storeID The store id
+     * @param upc14 The product code
+     */
+    public static void enqueue(Connection conn, int storeID, String upc14) throws SQLException {
+        ReorderPipeline pipeline = running;
+
+        if(pipeline == null){
+            PreparedStatement stmt = conn.prepareStatement(INSERT_SQL);
+            bind(stmt, new Event(storeID, upc14), VendorIndex.vendorFor(conn, upc14), MIN_QUANTITY);
+            stmt.execute();
+            return;
+        }
+
+        Event event = new Event(storeID, upc14);
+        if(conn.getAutoCommit()) pipeline.add(event);
+        else held.get().add(event);
+    }
+
+    /**
+     * Queues the events raised by the calling thread's transaction, once it committed.
+     */
+    public static void committed(){
+        ArrayList<Event> events = held.get();
+        ReorderPipeline pipeline = running;
+
+        if(pipeline != null){
+            for(Event event : events) pipeline.add(event);
+        }
+        events.clear();
+    }
+
+    /**
+     * Drops the events raised by the calling thread's transaction, after a rollback.
+     */
+    public static void rolledBack(){
+        held.get().clear();
+    }
+
+    /**
+     * @return Mark of the calling thread's events, for rollbackTo()
+     */
+    public static int savepoint(){
+        return held.get().size();
+    }
+
+    /**
+     * Drops the events the calling thread raised since a savepoint, after rolling back to it.
+     *
+     * @param mark The events held when the savepoint was set
+     */
+    public static void rollbackTo(int mark){
+        ArrayList<Event> events = held.get();
+        events.subList(Math.min(mark, events.size()), events.size()).clear();
+    }
+
+    private void add(Event event){
+        if(pending.add(event.key())) queue.add(event);
+    }
+
+    /**
+     * Binds an event to the insert statement.
+     */
+    private static void bind(PreparedStatement stmt, Event event, Integer vendorID, int quantity)
+    throws SQLException
+    {
+        stmt.setInt(1, event.storeID); // Store ID
+        stmt.setObject(2, vendorID, Types.INTEGER); // Vendor ID
+        stmt.setString(3, event.upc14); // UPC14
+        stmt.setInt(4, quantity); // New Inv
+        stmt.setInt(5, event.storeID);
+        stmt.setString(6, event.upc14);
+    }
+
+    /**
+     * @param products Number of products in the IN list
+     * @return Query summing each product's sales per store since a day, read from
+     * the SALES_DAILY rollup
+     */
+    static String velocitySql(int products){
+        StringBuilder query = new StringBuilder(
+            "SELECT STORE_ID, UPC14, SUM(QTY) FROM SALES_DAILY WHERE DAY >= ? AND UPC14 IN (");
+
+        for(int i = 0; i < products; i++){
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(") GROUP BY STORE_ID, UPC14;");
+
+        return query.toString();
+    }
+
+    /**
+     * Computes the reorder quantity of every event in a batch from recent sales.
+     *
+     * @param conn The connection to the db
+     * @param batch The events to size
+     * @return Quantities keyed by event key, products without sales are absent
+     */
+    private static HashMap<String, Integer> quantities(Connection conn, ArrayList<Event> batch)
+    throws SQLException
+    {
+        // Padded to a power of two so few distinct statements reach the statement cache
+        int products = Integer.highestOneBit(batch.size());
+        if(products < batch.size()) products <<= 1;
+
+        HashMap<String, Integer> quantities = new HashMap<String, Integer>();
+
+        try(PreparedStatement stmt = conn.prepareStatement(velocitySql(products))){
+            stmt.setDate(1, new Date(System.currentTimeMillis() - VELOCITY_DAYS * 86400000L));
+            for(int i = 0; i < products; i++){
+                stmt.setString(i + 2, batch.get(Math.min(i, batch.size() - 1)).upc14);
+            }
+
+            try(ResultSet res = stmt.executeQuery()){
+                while(res.next()){
+                    long sold = res.getLong(3);
+                    int quantity = (int) ((sold * COVER_DAYS + VELOCITY_DAYS - 1) / VELOCITY_DAYS);
+
+                    quantities.put(new Event(res.getInt(1), res.getString(2)).key(), quantity);
+                }
+            }
+        }
+
+        return quantities;
+    }
+
+    /**
+     * Worker loop, waits for an event then writes everything queued behind it. A
+     * failed batch is retried with whatever was queued since, once more after stop().
+     */
+    private void drain(){
+        ArrayList<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+
+        while(!stopping || !queue.isEmpty() || !batch.isEmpty()){
+            try{
+                if(batch.isEmpty()){
+                    Event first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if(first == null) continue;
+                    batch.add(first);
+                }
+
+                queue.drainTo(batch, BATCH_SIZE - batch.size());
+            } catch(InterruptedException e){
+                break;
+            }
+
+            boolean last = stopping;
+            if(flush(batch)){
+                batch.clear();
+            } else if(last){
+                System.out.println("Dropped " + batch.size() + " reorder events");
+                for(Event event : batch) pending.remove(event.key());
+                batch.clear();
+            } else {
+                try{
+                    Thread.sleep(RETRY_MS);
+                } catch(InterruptedException e){
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts a batch of requests in a single transaction.
+     *
+     * @param batch The events to write
+     * @return False if the batch was rolled back
+     */
+    private boolean flush(ArrayList<Event> batch){
+        Connection conn = null;
+
+        try{
+            conn = pool.borrow();
+            conn.setAutoCommit(false);
+
+            HashMap<String, Integer> quantities = quantities(conn, batch);
+
+            PreparedStatement stmt = conn.prepareStatement(INSERT_SQL);
+            for(Event event : batch){
+                Integer quantity = quantities.get(event.key());
+
+                bind(stmt, event, VendorIndex.vendorFor(conn, event.upc14),
+                     quantity == null ? MIN_QUANTITY : Math.max(quantity, MIN_QUANTITY));
+                stmt.addBatch();
+            }
+
+            stmt.executeBatch();
+            conn.commit();
+        } catch(SQLException e){
+            e.printStackTrace();
+            return false;
+        } finally {
+            pool.release(conn);
+        }
+
+        // Requests are now visible to the NOT EXISTS check
+        for(Event event : batch) pending.remove(event.key());
+        return true;
+    }
+}
@@ -0,0 +1,388 @@
+package database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import apps.CounterPoint;
+import apps.CustomerApp;
+import apps.VendorAccess;
+
+/**
+ * Schema step run after the tables and foreign keys exist. Creates the product
+ * catalog and the secondary indexes behind the apps' access paths, and checks, with
+ * EXPLAIN, that every query the apps issue is answered through an index rather than
+ * a table scan.
+ *
+ * PRODUCT_CATALOG holds every product of ITEMS, FOODS, BEVERAGE and PHARMA in one
+ * row keyed by a dense product_id and unique on upc14, attributes a table lacks
+ * are null. It is filled here and kept in sync by a row trigger on each item table.
+ *
+ * SALES_DAILY holds the units sold per store, product and day. It is filled here
+ * from the transaction history of every partition and then maintained by checkout in the same
+ * database transaction as the sale, so top sellers and sales velocity are read
+ * from it instead of the full history.
+ *
+ * New ids of tables the apps insert into come from sequences that start past the
+ * loaded rows and are handed out in blocks by an IdAllocator.
+ *
+ * Every statement is idempotent, so the step can be rerun on an existing database.
+ * Full loads such as the VendorIndex build read whole tables on purpose and are
+ * not part of the check.
+ */
+public class SchemaManager {
+
+    /**
+     * Columns of PRODUCT_CATALOG filled from the item tables.
+     */
+    static final String CATALOG_COLUMNS =
+        "upc14, tbl_enum, brand_id, name, calories, storage, allergens, weight, alcoholic, otc";
+
+    /**
+     * Item tables in tbl_enum order, with their select list for the catalog
+     * columns after name.
+     */
+    static final String[][] CATALOG_SOURCES = {
+        {"ITEMS", "NULL, NULL, NULL, NULL, NULL, NULL"},
+        {"FOODS", "calories, storage, allergens, weight, NULL, NULL"},
+        {"BEVERAGE", "calories, storage, allergens, weight, alcoholic, NULL"},
+        {"PHARMA", "NULL, NULL, NULL, NULL, NULL, otc"}
+    };
+
+    private static final String CATALOG_DDL =
+        "CREATE TABLE IF NOT EXISTS PRODUCT_CATALOG(product_id INT PRIMARY KEY auto_increment, " +
+        "upc14 CHAR(14) NOT NULL UNIQUE, tbl_enum INT, brand_id INT, name VARCHAR(255), calories INT, " +
+        "storage VARCHAR(255), allergens VARCHAR(255), weight INT, alcoholic BOOLEAN, otc BOOLEAN);";
+
+    private static final String ROLLUP_DDL =
+        "CREATE TABLE IF NOT EXISTS SALES_DAILY(store_id INT, upc14 CHAR(14), day DATE, qty BIGINT, " +
+        "PRIMARY KEY(store_id, day, upc14));";
+
+    /**
+     * Ids reserved by each NEXT VALUE of an id sequence, see IdAllocator.
+     */
+    public static final int ID_BLOCK = 50;
+
+    /**
+     * Id sequences: name, table, id column.
+     */
+    static final String[][] SEQUENCES = {
+        {"CUSTOMER_SEQ", "CUSTOMER", "Customer_ID"}
+    };
+
+    /**
+     * Secondary indexes: name, table, columns.
+     */
+    static final String[][] INDEXES = {
+        // Open requests of a vendor, optionally for one product
+        {"IDX_REORDER_VENDOR", "REORDER_REQUEST", "vendor_ID, shipment_date, upc_14"},
+        // Requests for a product, and the reorder pipeline's duplicate check
+        {"IDX_REORDER_UPC", "REORDER_REQUEST", "upc_14, store_ID"},
+        // Shipped requests of a store, read by restock
+        {"IDX_REORDER_STORE", "REORDER_REQUEST", "store_ID, shipment_date"},
+
+        // Customer history pages, in key order
+        {"IDX_TRANS_CUSTOMER_TIME", "TRANSACTIONS", "Customer_ID, TimeStamp, Transaction_ID"},
+        // Per store sales
+        {"IDX_TRANS_STORE", "TRANSACTIONS", "Store_ID, Transaction_ID"},
+        // Recent sales window of the reorder pipeline
+        {"IDX_TRANS_TIME", "TRANSACTIONS", "TimeStamp"},
+
+        // Sales of a product
+        {"IDX_PROD_TRANS_UPC", "PROD_TRANSACTIONS", "upc14, Transaction_ID"},
+
+        // Products of a store, the primary key leads with upc14
+        {"IDX_PROD_STORE_STORE", "PROD_STORE", "store_id, upc14"},
+
+        // Recent sales of a product, the primary key leads with store_id
+        {"IDX_SALES_UPC", "SALES_DAILY", "upc14, day"}
+    };
+
+    /**
+     * Queries issued by the apps: caller, sql. The sql is the apps' own, queries
+     * built per call are made with the parameter counts the apps use most.
+     */
+    static final String[][] APP_QUERIES = {
+        {"CounterPoint.storeExists", CounterPoint.STORE_EXISTS_SQL},
+        {"CounterPoint.customerExists", CounterPoint.CUSTOMER_EXISTS_SQL},
+        {"CounterPoint.customerName", CounterPoint.CUSTOMER_NAME_SQL},
+        {"CounterPoint.printReceipt", CounterPoint.namesSql(2)},
+        {"CounterPoint.enterItems", CounterPoint.SELL_SQL},
+        {"CounterPoint.reserveRemaining", CounterPoint.INVENTORY_SQL},
+        {"CounterPoint.enterItems", CounterPoint.SALES_DAILY_SQL},
+        {"CounterPoint.restockAll", CounterPoint.RESTOCK_SELECT_SQL},
+        {"CounterPoint.restockAll", CounterPoint.RESTOCK_UPDATE_SQL},
+        {"CounterPoint.restockAll", CounterPoint.RESTOCK_DELETE_SQL},
+        {"CheckoutJournal.apply", CheckoutJournal.APPLY_SQL},
+        {"CheckoutJournal.apply", CounterPoint.SALES_DAILY_SQL},
+
+        {"CustomerApp.customerExists", CustomerApp.CUSTOMER_EXISTS_SQL},
+        {"IdAllocator.reserve", IdAllocator.nextValueSql("CUSTOMER_SEQ")},
+        {"CustomerApp.retrieveCustomerTransactions", CustomerApp.historySql(false, "TRANSACTIONS", "PROD_TRANSACTIONS")},
+        {"CustomerApp.retrieveCustomerTransactions", CustomerApp.historySql(true, "TRANSACTIONS", "PROD_TRANSACTIONS")},
+        {"CustomerApp.retrieveCustomerTransactions", TransactionPartitions.ARCHIVE_FILES_SQL},
+        {"CustomerApp.retrieveStoreList", CustomerApp.STORE_LIST_SQL},
+        {"CustomerApp.retrieveStoreInfo", CustomerApp.STORE_INFO_SQL},
+        {"CustomerApp.retrieveMostSoldProduct", CustomerApp.MOST_SOLD_SQL},
+        {"CustomerApp.retrieveInventory", CustomerApp.INVENTORY_SQL},
+        {"CustomerApp.retrieveProductInfo", CustomerApp.PRODUCT_INFO_SQL},
+
+        {"VendorAccess.printSummary", VendorAccess.SUMMARY_SQL},
+        {"VendorAccess.printOpenRequests", VendorAccess.REQUESTS_SQL},
+        {"VendorAccess.printProductTotals", VendorAccess.PRODUCTS_SQL},
+        {"VendorAccess.printStoreTotals", VendorAccess.STORES_SQL},
+        {"VendorAccess.enterShipment", VendorAccess.SHIPMENT_SQL},
+        {"VendorAccess.requestsForProduct", VendorAccess.PRODUCT_REQUESTS_SQL},
+        {"VendorAccess.productReorderExists", VendorAccess.PRODUCT_REORDER_EXISTS_SQL},
+        {"VendorAccess.reorderExists", VendorAccess.REORDER_EXISTS_SQL},
+        {"VendorAccess.vendorExists", VendorAccess.VENDOR_EXISTS_SQL},
+
+        {"ProductCache.load", ProductCache.LOAD_SQL},
+        {"ProductCache.refresh", ProductCache.ROW_SQL},
+        {"ProductCatalogTrigger.fire", MainDatabase.ProductCatalogTrigger.DELETE_SQL},
+        {"ProductCatalogTrigger.fire", MainDatabase.ProductCatalogTrigger.mergeSql(2)},
+        {"ReorderPipeline.insert", ReorderPipeline.INSERT_SQL},
+        {"ReorderPipeline.quantities", ReorderPipeline.velocitySql(2)}
+    };
+
+    private final Connection conn;
+
+    /**
+     * SchemaManager constructor
+     *
+     * @param conn Connection to a database whose tables exist
+     */
+    public SchemaManager(Connection conn){
+        this.conn = conn;
+    }
+
+    /**
+     * @param tableName An item table
+     * @return Its tbl_enum
+     */
+    static int catalogSource(String tableName){
+        for(int i = 0; i < CATALOG_SOURCES.length; i++){
+            if(CATALOG_SOURCES[i][0].equalsIgnoreCase(tableName)) return i;
+        }
+
+        throw new IllegalArgumentException("Not an item table: " + tableName);
+    }
+
+    /**
+     * @param tblEnum The item table
+     * @return Select of the table's rows as catalog columns, without a where clause
+     */
+    static String catalogSelect(int tblEnum){
+        return "SELECT upc14, " + tblEnum + ", brand_id, name, " + CATALOG_SOURCES[tblEnum][1] +
+               " FROM " + CATALOG_SOURCES[tblEnum][0];
+    }
+
+    /**
+     * Creates the product catalog, the views over the partitioned sales history,
+     * the sales rollup, the id sequences and the secondary indexes.
+     */
+    public void apply() throws SQLException {
+        createCatalog();
+        new TransactionPartitions(conn, TransactionPartitions.ARCHIVE_DIR).createViews();
+        createRollup();
+        createSequences();
+        createIndexes();
+    }
+
+    /**
+     * Creates PRODUCT_CATALOG, adds the products it is missing and installs the
+     * triggers keeping it in sync. A product listed in two item tables keeps the
+     * first one.
+     */
+    public void createCatalog() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute(CATALOG_DDL);
+
+            for(int i = 0; i < CATALOG_SOURCES.length; i++){
+                long start = System.nanoTime();
+                int added = stmt.executeUpdate(
+                    "INSERT INTO PRODUCT_CATALOG(" + CATALOG_COLUMNS + ") " + catalogSelect(i) +
+                    " S WHERE NOT EXISTS (SELECT 1 FROM PRODUCT_CATALOG PC WHERE PC.UPC14 = S.UPC14);");
+
+                stmt.execute("CREATE TRIGGER IF NOT EXISTS CATALOG_SYNC_" + CATALOG_SOURCES[i][0] +
+                             " AFTER INSERT, UPDATE, DELETE ON " + CATALOG_SOURCES[i][0] +
+                             " FOR EACH ROW CALL \"" + MainDatabase.ProductCatalogTrigger.class.getName() + "\"");
+
+                System.out.printf("Catalog %-9s %8d products %.2fs\n", CATALOG_SOURCES[i][0], added,
+                                  (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    /**
+     * Creates SALES_DAILY and fills it from the transaction history when it is empty.
+     */
+    public void createRollup() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute(ROLLUP_DDL);
+
+            try(ResultSet res = stmt.executeQuery("SELECT 1 FROM SALES_DAILY LIMIT 1;")){
+                if(res.next()) return;
+            }
+        }
+
+        rebuildRollup();
+    }
+
+    /**
+     * Refills SALES_DAILY from the transaction history, after the history was
+     * changed behind checkout's back, e.g. by a delta import. Archived periods
+     * never change, their days are kept.
+     */
+    public void rebuildRollup() throws SQLException {
+        long start = System.nanoTime();
+
+        TransactionPartitions partitions = new TransactionPartitions(conn, TransactionPartitions.ARCHIVE_DIR);
+        partitions.createViews();
+
+        Timestamp from = partitions.archivedUntil();
+        List<String[]> live = partitions.liveTables();
+
+        // Joined per partition, the union views would rescan the archive per row
+        StringBuilder fill = new StringBuilder(
+            "INSERT INTO SALES_DAILY SELECT STORE_ID, UPC14, DAY, SUM(QUANTITY) FROM (");
+        for(int i = 0; i < live.size(); i++){
+            fill.append(i == 0 ? "" : " UNION ALL ")
+                .append("SELECT T.STORE_ID, PT.UPC14, CAST(T.TIMESTAMP AS DATE) DAY, PT.QUANTITY FROM ")
+                .append(live.get(i)[0]).append(" T JOIN ").append(live.get(i)[1])
+                .append(" PT ON PT.TRANSACTION_ID = T.TRANSACTION_ID WHERE T.TIMESTAMP >= ?");
+        }
+        fill.append(") GROUP BY STORE_ID, UPC14, DAY;");
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+
+        try(PreparedStatement delete = conn.prepareStatement("DELETE FROM SALES_DAILY WHERE DAY >= ?;");
+            PreparedStatement insert = conn.prepareStatement(fill.toString())){
+            delete.setTimestamp(1, from);
+            delete.executeUpdate();
+
+            for(int i = 1; i <= live.size(); i++){
+                insert.setTimestamp(i, from);
+            }
+            int rows = insert.executeUpdate();
+            conn.commit();
+
+            System.out.printf("Rollup SALES_DAILY %8d rows %.2fs\n", rows, (System.nanoTime() - start) / 1e9);
+        } catch(SQLException e){
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Creates every missing id sequence, and moves an existing one past ids that
+     * were loaded into its table since, e.g. by a delta import.
+     */
+    public void createSequences() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            for(String[] seq : SEQUENCES){
+                long first;
+                try(ResultSet res = stmt.executeQuery("SELECT COALESCE(MAX(" + seq[2] + "), 0) + 1 FROM " + seq[1] + ";")){
+                    res.next();
+                    first = res.getLong(1);
+                }
+
+                stmt.execute("CREATE SEQUENCE IF NOT EXISTS " + seq[0] + " START WITH " + first +
+                             " INCREMENT BY " + ID_BLOCK + ";");
+
+                long next;
+                try(ResultSet res = stmt.executeQuery(
+                    "SELECT CURRENT_VALUE + INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = '" + seq[0] + "';")){
+                    res.next();
+                    next = res.getLong(1);
+                }
+
+                if(next < first) stmt.execute("ALTER SEQUENCE " + seq[0] + " RESTART WITH " + first + ";");
+
+                System.out.printf("Sequence %s next %d\n", seq[0], Math.max(next, first));
+            }
+        }
+    }
+
+    /**
+     * Creates every missing secondary index.
+     */
+    public void createIndexes() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            for(String[] index : INDEXES){
+                long start = System.nanoTime();
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + index[0] + " ON " + index[1] + "(" + index[2] + ");");
+
+                System.out.printf("Index %s ON %s(%s) %.2fs\n", index[0], index[1], index[2],
+                                  (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    /**
+     * Explains every app query.
+     *
+     * @return One line per query whose plan scans a table, empty if all use an index
+     */
+    public List<String> checkPlans() throws SQLException {
+        List<String> scans = new ArrayList<String>();
+
+        for(String[] query : APP_QUERIES){
+            String plan = explain(query[1]);
+
+            if(plan.contains(".tableScan") && !plan.contains("/* direct lookup */")){
+                scans.add(query[0] + ": " + query[1]);
+            }
+        }
+
+        return scans;
+    }
+
+    /**
+     * @param sql The query, its parameters are bound to null
+     * @return The plan H2 chooses for it
+     */
+    private String explain(String sql) throws SQLException {
+        try(PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)){
+            int params = pstmt.getParameterMetaData().getParameterCount();
+            for(int i = 1; i <= params; i++){
+                pstmt.setNull(i, Types.VARCHAR);
+            }
+
+            try(ResultSet res = pstmt.executeQuery()){
+                return res.next() ? res.getString(1) : "";
+            }
+        }
+    }
+
+    /**
+     * Usage: java database.SchemaManager [check]
+     *
+     * Creates the catalog, rollup, sequences and indexes on ./database/db, then explains every app
+     * query and exits with status 1 if any of them scans a table. check only
+     * explains.
+     */
+    public static void main(String[] args){
+        boolean checkOnly = args.length > 0 && args[0].equals("check");
+
+        try(Connection conn = DriverManager.getConnection("jdbc:h2:./database/db;IFEXISTS=TRUE", "user", "password")){
+            SchemaManager schema = new SchemaManager(conn);
+
+            if(!checkOnly) schema.apply();
+
+            List<String> scans = schema.checkPlans();
+            for(String scan : scans){
+                System.out.println("Table scan in " + scan);
+            }
+
+            System.out.printf("%d of %d app queries use an index\n", APP_QUERIES.length - scans.size(), APP_QUERIES.length);
+
+            if(!scans.isEmpty()) System.exit(1);
+        } catch(SQLException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
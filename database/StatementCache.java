@@ -0,0 +1,150 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per connection LRU cache of prepared statements keyed by their SQL text. A
+ * connection is only ever used by one thread at a time, so the cache is not
+ * synchronized.
+ *
+ * Callers get a proxy of the cached statement whose close() only closes its
+ * result set and clears it for the next caller, so try-with-resources keeps the
+ * statement cached. Every prepare hands it out with cleared parameters and batch
+ * and with the fetch size and max rows it was prepared with.
+ */
+public class StatementCache {
+
+    /**
+     * A cached statement and the proxy handed out for it.
+     */
+    private static class Cached implements InvocationHandler {
+        final PreparedStatement raw;
+        final PreparedStatement proxy;
+        final int fetchSize;
+        final int maxRows;
+
+        Cached(PreparedStatement raw) throws SQLException {
+            this.raw = raw;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                                                    new Class<?>[]{PreparedStatement.class}, this);
+            this.fetchSize = raw.getFetchSize();
+            this.maxRows = raw.getMaxRows();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getName().equals("close") && method.getParameterCount() == 0){
+                ResultSet res = raw.getResultSet();
+                if(res != null) res.close();
+                raw.clearParameters();
+                raw.clearBatch();
+                return null;
+            }
+
+            try{
+                return method.invoke(raw, args);
+            } catch(InvocationTargetException e){
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Clears what the last caller left on the statement.
+         */
+        void reset() throws SQLException {
+            raw.clearParameters();
+            raw.clearBatch();
+            if(raw.getMaxRows() != maxRows) raw.setMaxRows(maxRows);
+            if(raw.getFetchSize() != fetchSize) raw.setFetchSize(fetchSize);
+        }
+    }
+
+    private final Connection conn;
+    private final LinkedHashMap<String, Cached> statements;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * StatementCache constructor
+     *
+     * @param conn The connection statements are prepared on
+     * @param capacity Number of statements kept before the least recently used is closed
+     */
+    public StatementCache(Connection conn, int capacity){
+        this.conn = conn;
+        this.statements = new LinkedHashMap<String, Cached>(capacity * 2, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest){
+                if(size() <= capacity) return false;
+
+                closeQuietly(eldest.getValue().raw);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the SQL, preparing it on a miss.
+     *
+     * @param sql The statement text
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or NO_GENERATED_KEYS,
+     *                          negative for the plain prepareStatement(sql) form
+     * @return A statement with cleared parameters and batch, closing it keeps it cached
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys < 0 ? sql : autoGeneratedKeys + ":" + sql;
+        Cached cached = statements.get(key);
+
+        if(cached != null && !cached.raw.isClosed()){
+            hits++;
+            cached.reset();
+            return cached.proxy;
+        }
+
+        misses++;
+        cached = new Cached(autoGeneratedKeys < 0 ? conn.prepareStatement(sql)
+                                                  : conn.prepareStatement(sql, autoGeneratedKeys));
+        statements.put(key, cached);
+
+        return cached.proxy;
+    }
+
+    /**
+     * @return Number of prepares served from the cache
+     */
+    public long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return Number of prepares that had to be parsed by the database
+     */
+    public long getMisses(){
+        return misses;
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    public void clear(){
+        for(Cached cached : statements.values()){
+            closeQuietly(cached.raw);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(Statement stmt){
+        try{
+            stmt.close();
+        } catch(SQLException e){
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,850 @@
+package database;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+
+/**
+ * Monthly partitions of the sales history. TRANSACTIONS and PROD_TRANSACTIONS
+ * hold the current month, which is all checkout writes and the apps' history
+ * reads ever touch. split moves every closed month into its own pair of period
+ * tables, TRANSACTIONS_Pyyyymm and PROD_TRANSACTIONS_Pyyyymm, and archive moves
+ * old period tables into a gzip compressed columnar file per month.
+ *
+ * TRANS_PERIOD routes each period to its table or file, and the views
+ * TRANSACTIONS_ALL and PROD_TRANSACTIONS_ALL union the current tables, the period
+ * tables and the archived periods, read back through the ARCHIVED_TRANSACTIONS()
+ * and ARCHIVED_PROD_TRANSACTIONS() table functions, for ad hoc queries over the
+ * whole history. The table functions decode whole files, so bulk work such as the
+ * SALES_DAILY rebuild reads the tables directly and leaves archived periods alone.
+ * ARCHIVE_CUSTOMER lists the customers of each archived period, so a customer's
+ * history read through ARCHIVED_HISTORY(id) only opens the files holding them.
+ *
+ * The views only read a period table while TRANS_PERIOD lists the period as a
+ * table, so the single update registering an archive file moves the period from
+ * the table to the file at once. H2 commits DDL on its own, the tables of
+ * archived periods are dropped afterwards and again by the next archive run if
+ * that was interrupted.
+ */
+public class TransactionPartitions {
+
+    /**
+     * Default directory of the archive files, next to ./database/db.
+     */
+    public static final String ARCHIVE_DIR = "./database/archive";
+
+    private static final String PERIOD_DDL =
+        "CREATE TABLE IF NOT EXISTS TRANS_PERIOD(period INT PRIMARY KEY, state VARCHAR(8), rows BIGINT, " +
+        "file VARCHAR(1024), customers BIGINT);";
+
+    // TRANS_PERIOD of databases partitioned before ARCHIVE_CUSTOMER
+    private static final String CUSTOMERS_DDL =
+        "ALTER TABLE TRANS_PERIOD ADD COLUMN IF NOT EXISTS customers BIGINT;";
+
+    private static final String ARCHIVE_CUSTOMER_DDL =
+        "CREATE TABLE IF NOT EXISTS ARCHIVE_CUSTOMER(customer_id INT, period INT, PRIMARY KEY(customer_id, period));";
+
+    /**
+     * Archive files holding a customer's transactions, oldest first.
+     */
+    public static final String ARCHIVE_FILES_SQL =
+        "SELECT P.FILE FROM ARCHIVE_CUSTOMER A JOIN TRANS_PERIOD P ON P.PERIOD = A.PERIOD " +
+        "WHERE A.CUSTOMER_ID = ? AND P.STATE = 'ARCHIVE' ORDER BY A.PERIOD;";
+
+    private static final String TRANS_COLUMNS = "TRANSACTION_ID, TIMESTAMP, STORE_ID, CUSTOMER_ID";
+    private static final String LINE_COLUMNS = "TRANSACTION_ID, UPC14, QUANTITY";
+
+    // Period states
+    private static final String TABLE = "TABLE";
+    private static final String ARCHIVE = "ARCHIVE";
+
+    // Archive file header, "TRC1"
+    private static final int MAGIC = 0x54524331;
+
+    // Stands for a null int column in an archive file
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    private final Connection conn;
+    private final File archiveDir;
+
+    /**
+     * TransactionPartitions constructor
+     *
+     * @param conn Connection to the database
+     * @param archiveDir Directory receiving the archive files
+     */
+    public TransactionPartitions(Connection conn, String archiveDir){
+        this.conn = conn;
+        this.archiveDir = new File(archiveDir);
+    }
+
+    /**
+     * Creates TRANS_PERIOD, ARCHIVE_CUSTOMER, the archive table functions and the
+     * union views over every partition, and lists the customers of archived
+     * periods that ARCHIVE_CUSTOMER is missing.
+     */
+    public void createViews() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            stmt.execute(PERIOD_DDL);
+            stmt.execute(CUSTOMERS_DDL);
+            stmt.execute(ARCHIVE_CUSTOMER_DDL);
+
+            stmt.execute("CREATE ALIAS IF NOT EXISTS ARCHIVED_TRANSACTIONS FOR \"" +
+                         TransactionPartitions.class.getName() + ".archivedTransactions\";");
+            stmt.execute("CREATE ALIAS IF NOT EXISTS ARCHIVED_PROD_TRANSACTIONS FOR \"" +
+                         TransactionPartitions.class.getName() + ".archivedLines\";");
+            stmt.execute("CREATE ALIAS IF NOT EXISTS ARCHIVED_HISTORY FOR \"" +
+                         TransactionPartitions.class.getName() + ".archivedHistory\";");
+
+            List<Integer> tables = periods(TABLE);
+
+            StringBuilder trans = new StringBuilder("CREATE OR REPLACE VIEW TRANSACTIONS_ALL AS SELECT " +
+                                                    TRANS_COLUMNS + " FROM TRANSACTIONS");
+            StringBuilder lines = new StringBuilder("CREATE OR REPLACE VIEW PROD_TRANSACTIONS_ALL AS SELECT " +
+                                                    LINE_COLUMNS + " FROM PROD_TRANSACTIONS");
+            for(int period : tables){
+                String live = " WHERE EXISTS (SELECT 1 FROM TRANS_PERIOD WHERE PERIOD = " + period +
+                              " AND STATE = '" + TABLE + "')";
+                trans.append(" UNION ALL SELECT ").append(TRANS_COLUMNS).append(" FROM TRANSACTIONS_P").append(period)
+                     .append(live);
+                lines.append(" UNION ALL SELECT ").append(LINE_COLUMNS).append(" FROM PROD_TRANSACTIONS_P").append(period)
+                     .append(live);
+            }
+            trans.append(" UNION ALL SELECT * FROM ARCHIVED_TRANSACTIONS();");
+            lines.append(" UNION ALL SELECT * FROM ARCHIVED_PROD_TRANSACTIONS();");
+
+            stmt.execute(trans.toString());
+            stmt.execute(lines.toString());
+        }
+
+        indexArchives();
+    }
+
+    /**
+     * Reads the customers of every archived period missing from ARCHIVE_CUSTOMER
+     * back from its file, each period in one transaction.
+     */
+    private void indexArchives() throws SQLException {
+        LinkedHashMap<Integer, String> missing = new LinkedHashMap<Integer, String>();
+
+        try(Statement stmt = conn.createStatement();
+            ResultSet res = stmt.executeQuery("SELECT PERIOD, FILE FROM TRANS_PERIOD WHERE STATE = '" + ARCHIVE +
+                                              "' AND CUSTOMERS IS NULL ORDER BY PERIOD;")){
+            while(res.next()) missing.put(res.getInt(1), res.getString(2));
+        }
+
+        for(Map.Entry<Integer, String> entry : missing.entrySet()){
+            TreeSet<Integer> customers = new TreeSet<Integer>();
+            try{
+                for(Object[] r : read(entry.getValue(), false)){
+                    if(r[3] != null) customers.add((Integer) r[3]);
+                }
+            } catch(IOException e){
+                throw new SQLException("Cannot read archive " + entry.getValue(), e);
+            }
+
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
+            try(PreparedStatement clear = conn.prepareStatement("DELETE FROM ARCHIVE_CUSTOMER WHERE PERIOD = ?;");
+                PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO ARCHIVE_CUSTOMER(CUSTOMER_ID, PERIOD) VALUES (?, ?);");
+                PreparedStatement count = conn.prepareStatement(
+                    "UPDATE TRANS_PERIOD SET CUSTOMERS = ? WHERE PERIOD = ?;")){
+                clear.setInt(1, entry.getKey());
+                clear.executeUpdate();
+
+                for(int customer : customers){
+                    insert.setInt(1, customer);
+                    insert.setInt(2, entry.getKey());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+
+                count.setLong(1, customers.size());
+                count.setInt(2, entry.getKey());
+                count.executeUpdate();
+
+                conn.commit();
+            } catch(SQLException e){
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            System.out.printf("Indexed %d %10d customers\n", entry.getKey(), customers.size());
+        }
+    }
+
+    /**
+     * Moves every month before the current one out of TRANSACTIONS and
+     * PROD_TRANSACTIONS into its period tables, each month in one transaction.
+     * Rows of a month that was archived already stay where they are.
+     *
+     * @return Number of months split off
+     */
+    public int split() throws SQLException {
+        createViews();
+
+        Calendar current = Calendar.getInstance();
+        int open = current.get(Calendar.YEAR) * 100 + current.get(Calendar.MONTH) + 1;
+
+        List<Integer> closed = new ArrayList<Integer>();
+        try(PreparedStatement pstmt = conn.prepareStatement(
+            "SELECT DISTINCT YEAR(TIMESTAMP) * 100 + MONTH(TIMESTAMP) FROM TRANSACTIONS WHERE TIMESTAMP < ? ORDER BY 1;")){
+            pstmt.setTimestamp(1, start(open));
+
+            try(ResultSet res = pstmt.executeQuery()){
+                while(res.next()) closed.add(res.getInt(1));
+            }
+        }
+
+        List<Integer> archived = periods(ARCHIVE);
+        int split = 0;
+
+        for(int period : closed){
+            if(archived.contains(period)){
+                System.out.printf("Period %d is archived, its rows stay in TRANSACTIONS\n", period);
+                continue;
+            }
+
+            splitPeriod(period);
+            split++;
+        }
+
+        createViews();
+
+        return split;
+    }
+
+    private void splitPeriod(int period) throws SQLException {
+        long begin = System.nanoTime();
+        String trans = "TRANSACTIONS_P" + period;
+        String lines = "PROD_TRANSACTIONS_P" + period;
+
+        try(Statement stmt = conn.createStatement()){
+            // Empty copies of the tables, so the move itself is transactional
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + trans + " AS SELECT " + TRANS_COLUMNS +
+                         " FROM TRANSACTIONS WHERE FALSE;");
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + lines + " AS SELECT " + LINE_COLUMNS +
+                         " FROM PROD_TRANSACTIONS WHERE FALSE;");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + trans + " ON " + trans + "(TRANSACTION_ID);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + trans + "_CUSTOMER ON " + trans +
+                         "(CUSTOMER_ID, TIMESTAMP, TRANSACTION_ID);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS IDX_" + lines + " ON " + lines + "(TRANSACTION_ID, UPC14);");
+        }
+
+        String range = "T.TIMESTAMP >= ? AND T.TIMESTAMP < ?";
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+
+        try(PreparedStatement copyTrans = conn.prepareStatement(
+                "INSERT INTO " + trans + " SELECT " + TRANS_COLUMNS + " FROM TRANSACTIONS T WHERE " + range + ";");
+            PreparedStatement copyLines = conn.prepareStatement(
+                "INSERT INTO " + lines + " SELECT PT.TRANSACTION_ID, PT.UPC14, PT.QUANTITY FROM PROD_TRANSACTIONS PT " +
+                "JOIN TRANSACTIONS T ON T.TRANSACTION_ID = PT.TRANSACTION_ID WHERE " + range + ";");
+            PreparedStatement deleteLines = conn.prepareStatement(
+                "DELETE FROM PROD_TRANSACTIONS WHERE TRANSACTION_ID IN " +
+                "(SELECT T.TRANSACTION_ID FROM TRANSACTIONS T WHERE " + range + ");");
+            PreparedStatement deleteTrans = conn.prepareStatement(
+                "DELETE FROM TRANSACTIONS T WHERE " + range + ";");
+            PreparedStatement register = conn.prepareStatement(
+                "MERGE INTO TRANS_PERIOD(PERIOD, STATE, ROWS, FILE) KEY(PERIOD) SELECT ?, ?, COUNT(*), NULL FROM " +
+                trans + ";")){
+
+            int rows = 0;
+            int lineRows = 0;
+            for(PreparedStatement pstmt : new PreparedStatement[]{copyTrans, copyLines, deleteLines, deleteTrans}){
+                pstmt.setTimestamp(1, start(period));
+                pstmt.setTimestamp(2, start(next(period)));
+
+                int count = pstmt.executeUpdate();
+                if(pstmt == copyTrans) rows = count;
+                if(pstmt == copyLines) lineRows = count;
+            }
+
+            register.setInt(1, period);
+            register.setString(2, TABLE);
+            register.executeUpdate();
+
+            conn.commit();
+
+            System.out.printf("Split %d %10d transactions %10d lines %.2fs\n", period, rows, lineRows,
+                              (System.nanoTime() - begin) / 1e9);
+        } catch(SQLException e){
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Archives every period table but the newest ones.
+     *
+     * @param keep Number of the newest period tables kept as tables
+     * @return Number of months archived
+     */
+    public int archive(int keep) throws SQLException, IOException {
+        createViews();
+        dropArchivedTables();
+
+        List<Integer> tables = periods(TABLE);
+        List<Integer> archived = new ArrayList<Integer>();
+
+        for(int i = 0; i < tables.size() - keep; i++){
+            int period = tables.get(i);
+            long begin = System.nanoTime();
+
+            archiveDir.mkdirs();
+            File file = new File(archiveDir, "TRANS_P" + period + ".col.gz");
+            long rows = writeArchive(period, file);
+
+            // The file is on disk, the update switches the views over to it and
+            // commits together with the period's customers
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
+            try(PreparedStatement clear = conn.prepareStatement("DELETE FROM ARCHIVE_CUSTOMER WHERE PERIOD = ?;");
+                PreparedStatement index = conn.prepareStatement(
+                    "INSERT INTO ARCHIVE_CUSTOMER(CUSTOMER_ID, PERIOD) SELECT DISTINCT CUSTOMER_ID, ? FROM " +
+                    "TRANSACTIONS_P" + period + " WHERE CUSTOMER_ID IS NOT NULL;");
+                PreparedStatement register = conn.prepareStatement(
+                    "UPDATE TRANS_PERIOD SET STATE = ?, ROWS = ?, FILE = ?, CUSTOMERS = ? WHERE PERIOD = ? AND STATE = ?;")){
+                clear.setInt(1, period);
+                clear.executeUpdate();
+
+                index.setInt(1, period);
+                int customers = index.executeUpdate();
+
+                register.setString(1, ARCHIVE);
+                register.setLong(2, rows);
+                register.setString(3, file.getAbsoluteFile().toPath().normalize().toString());
+                register.setLong(4, customers);
+                register.setInt(5, period);
+                register.setString(6, TABLE);
+                if(register.executeUpdate() != 1) throw new SQLException("Period " + period + " is not a table");
+
+                conn.commit();
+            } catch(SQLException e){
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            archived.add(period);
+
+            System.out.printf("Archived %d %10d transactions %8d kB %.2fs\n", period, rows, file.length() / 1024,
+                              (System.nanoTime() - begin) / 1e9);
+        }
+
+        // The views stop reading the tables before they are dropped
+        createViews();
+        dropArchivedTables();
+
+        return archived.size();
+    }
+
+    /**
+     * Drops the tables left behind by archived periods.
+     */
+    private void dropArchivedTables() throws SQLException {
+        try(Statement stmt = conn.createStatement()){
+            for(int period : periods(ARCHIVE)){
+                stmt.execute("DROP TABLE IF EXISTS PROD_TRANSACTIONS_P" + period + ";");
+                stmt.execute("DROP TABLE IF EXISTS TRANSACTIONS_P" + period + ";");
+            }
+        }
+    }
+
+    /**
+     * Writes a period's tables column by column, ordered by transaction id. Ids
+     * and timestamps are stored as deltas, all integers as zig-zag varints.
+     *
+     * @return Number of transactions written
+     */
+    private long writeArchive(int period, File file) throws SQLException, IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long rows;
+
+        try(Statement stmt = conn.createStatement();
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            GZIPOutputStream gzip = new GZIPOutputStream(fileOut, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip))){
+
+            out.writeInt(MAGIC);
+            out.writeInt(period);
+
+            ColumnWriter trans = new ColumnWriter(4);
+            try(ResultSet res = stmt.executeQuery("SELECT " + TRANS_COLUMNS + " FROM TRANSACTIONS_P" + period +
+                                                  " ORDER BY TRANSACTION_ID;")){
+                while(res.next()){
+                    trans.delta(0, res.getLong(1));
+                    trans.delta(1, res.getTimestamp(2).getTime());
+                    trans.value(2, res.getObject(3) == null ? NULL_INT : res.getInt(3));
+                    trans.value(3, res.getObject(4) == null ? NULL_INT : res.getInt(4));
+                    trans.rows++;
+                }
+            }
+            trans.writeTo(out);
+
+            ColumnWriter lines = new ColumnWriter(3);
+            DataOutputStream upcs = new DataOutputStream(lines.columns[1]);
+            try(ResultSet res = stmt.executeQuery("SELECT " + LINE_COLUMNS + " FROM PROD_TRANSACTIONS_P" + period +
+                                                  " ORDER BY TRANSACTION_ID, UPC14;")){
+                while(res.next()){
+                    lines.delta(0, res.getLong(1));
+                    upcs.writeUTF(res.getString(2));
+                    lines.value(2, res.getObject(3) == null ? NULL_INT : res.getInt(3));
+                    lines.rows++;
+                }
+            }
+            lines.writeTo(out);
+
+            out.flush();
+            gzip.finish();
+            fileOut.getFD().sync();
+            rows = trans.rows;
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Makes the rename durable before the period is registered
+        try(FileChannel dir = FileChannel.open(archiveDir.toPath(), StandardOpenOption.READ)){
+            dir.force(true);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Buffers each column of a table in its own stream.
+     */
+    private static class ColumnWriter {
+        final ByteArrayOutputStream[] columns;
+        final long[] last;
+        long rows;
+
+        ColumnWriter(int count){
+            columns = new ByteArrayOutputStream[count];
+            last = new long[count];
+            for(int i = 0; i < count; i++) columns[i] = new ByteArrayOutputStream();
+        }
+
+        void delta(int column, long value){
+            writeVarLong(columns[column], value - last[column]);
+            last[column] = value;
+        }
+
+        void value(int column, long value){
+            writeVarLong(columns[column], value);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(rows);
+            for(ByteArrayOutputStream column : columns){
+                out.writeInt(column.size());
+                column.writeTo(out);
+            }
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value){
+        long zigzag = (value << 1) ^ (value >> 63);
+        try{
+            while((zigzag & ~0x7FL) != 0){
+                out.write((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.write((int) zigzag);
+        } catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for(int shift = 0;; shift += 7){
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) break;
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Table function behind ARCHIVED_TRANSACTIONS().
+     *
+     * @param conn The calling session
+     * @return Rows of every archived period, one period in memory at a time
+     */
+    public static ResultSet archivedTransactions(Connection conn) throws SQLException {
+        SimpleResultSet rs = new SimpleResultSet(new ArchiveSource(conn, false));
+        rs.addColumn("TRANSACTION_ID", Types.BIGINT, 19, 0);
+        rs.addColumn("TIMESTAMP", Types.TIMESTAMP, 26, 6);
+        rs.addColumn("STORE_ID", Types.INTEGER, 10, 0);
+        rs.addColumn("CUSTOMER_ID", Types.INTEGER, 10, 0);
+        return rs;
+    }
+
+    /**
+     * Table function behind ARCHIVED_PROD_TRANSACTIONS().
+     *
+     * @param conn The calling session
+     * @return Rows of every archived period, one period in memory at a time
+     */
+    public static ResultSet archivedLines(Connection conn) throws SQLException {
+        SimpleResultSet rs = new SimpleResultSet(new ArchiveSource(conn, true));
+        rs.addColumn("TRANSACTION_ID", Types.BIGINT, 19, 0);
+        rs.addColumn("UPC14", Types.CHAR, 14, 0);
+        rs.addColumn("QUANTITY", Types.INTEGER, 10, 0);
+        return rs;
+    }
+
+    /**
+     * Table function behind ARCHIVED_HISTORY(customerID).
+     *
+     * @param conn The calling session
+     * @param customerID The customer
+     * @return The customer's archived transactions joined to their lines, oldest
+     *         first, one row with null product for a transaction without lines
+     */
+    public static ResultSet archivedHistory(Connection conn, Integer customerID) throws SQLException {
+        SimpleResultSet rs = new SimpleResultSet(new HistorySource(conn, customerID));
+        rs.addColumn("TRANSACTION_ID", Types.BIGINT, 19, 0);
+        rs.addColumn("TIMESTAMP", Types.TIMESTAMP, 26, 6);
+        rs.addColumn("STORE_ID", Types.INTEGER, 10, 0);
+        rs.addColumn("UPC14", Types.CHAR, 14, 0);
+        rs.addColumn("QUANTITY", Types.INTEGER, 10, 0);
+        return rs;
+    }
+
+    /**
+     * Hands out the rows of a list of archive files, one file in memory at a time.
+     */
+    private abstract static class FileSource implements SimpleRowSource {
+        final List<String> files = new ArrayList<String>();
+        private int file;
+        private Object[][] rows = new Object[0][];
+        private int row;
+
+        /**
+         * @param path An archive file
+         * @return Its rows
+         */
+        abstract Object[][] decode(String path) throws IOException;
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            while(row == rows.length){
+                if(file == files.size()) return null;
+
+                try{
+                    rows = decode(files.get(file++));
+                } catch(IOException e){
+                    throw new SQLException("Cannot read archive " + files.get(file - 1), e);
+                }
+                row = 0;
+            }
+
+            return rows[row++];
+        }
+
+        @Override
+        public void close(){
+            rows = null;
+        }
+
+        @Override
+        public void reset(){
+            file = 0;
+            row = 0;
+            rows = new Object[0][];
+        }
+    }
+
+    /**
+     * Decodes the archive files one period at a time.
+     */
+    private static class ArchiveSource extends FileSource {
+        private final boolean lines;
+
+        ArchiveSource(Connection conn, boolean lines) throws SQLException {
+            this.lines = lines;
+
+            // H2 asks for the column list with a placeholder connection
+            if(conn.getMetaData().getURL().startsWith("jdbc:columnlist:")) return;
+
+            try(Statement stmt = conn.createStatement();
+                ResultSet res = stmt.executeQuery(
+                    "SELECT FILE FROM TRANS_PERIOD WHERE STATE = '" + ARCHIVE + "' ORDER BY PERIOD;")){
+                while(res.next()) files.add(res.getString(1));
+            }
+        }
+
+        @Override
+        Object[][] decode(String path) throws IOException {
+            return read(path, lines);
+        }
+    }
+
+    /**
+     * Joins a customer's transactions to their lines, one period at a time and
+     * only in the files ARCHIVE_CUSTOMER lists for the customer.
+     */
+    private static class HistorySource extends FileSource {
+        private final Integer customerID;
+
+        HistorySource(Connection conn, Integer customerID) throws SQLException {
+            this.customerID = customerID;
+
+            if(customerID == null || conn.getMetaData().getURL().startsWith("jdbc:columnlist:")) return;
+
+            try(PreparedStatement pstmt = conn.prepareStatement(ARCHIVE_FILES_SQL)){
+                pstmt.setInt(1, customerID);
+                try(ResultSet res = pstmt.executeQuery()){
+                    while(res.next()) files.add(res.getString(1));
+                }
+            }
+        }
+
+        @Override
+        Object[][] decode(String path) throws IOException {
+            // Transactions of the customer by id, in id order
+            LinkedHashMap<Long, Object[]> trans = new LinkedHashMap<Long, Object[]>();
+            for(Object[] r : read(path, false)){
+                if(customerID.equals(r[3])) trans.put((Long) r[0], r);
+            }
+            if(trans.isEmpty()) return new Object[0][];
+
+            HashMap<Long, List<Object[]>> lines = new HashMap<Long, List<Object[]>>();
+            for(Object[] r : read(path, true)){
+                if(trans.containsKey(r[0])) lines.computeIfAbsent((Long) r[0], id -> new ArrayList<Object[]>()).add(r);
+            }
+
+            List<Object[]> ordered = new ArrayList<Object[]>(trans.values());
+            ordered.sort((a, b) -> {
+                int c = ((Timestamp) a[1]).compareTo((Timestamp) b[1]);
+                return c != 0 ? c : Long.compare((Long) a[0], (Long) b[0]);
+            });
+
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for(Object[] t : ordered){
+                List<Object[]> items = lines.get(t[0]);
+                if(items == null){
+                    rows.add(new Object[]{t[0], t[1], t[2], null, null});
+                    continue;
+                }
+                for(Object[] l : items) rows.add(new Object[]{t[0], t[1], t[2], l[1], l[2]});
+            }
+
+            return rows.toArray(new Object[0][]);
+        }
+    }
+
+    /**
+     * @param path An archive file
+     * @param lines True for its PROD_TRANSACTIONS rows, false for TRANSACTIONS
+     * @return The rows
+     */
+    private static Object[][] read(String path, boolean lines) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(path), 1 << 16)))){
+
+            if(in.readInt() != MAGIC) throw new IOException("Not an archive file");
+            in.readInt(); // Period
+
+            long transRows = in.readLong();
+            if(!lines){
+                Object[][] rows = new Object[(int) transRows][4];
+
+                long id = 0;
+                long time = 0;
+                in.readInt();
+                for(Object[] r : rows){
+                    id += readVarLong(in);
+                    r[0] = id;
+                }
+                in.readInt();
+                for(Object[] r : rows){
+                    time += readVarLong(in);
+                    r[1] = new Timestamp(time);
+                }
+                for(int c = 2; c < 4; c++){
+                    in.readInt();
+                    for(Object[] r : rows){
+                        int v = (int) readVarLong(in);
+                        r[c] = v == NULL_INT ? null : v;
+                    }
+                }
+
+                return rows;
+            }
+
+            // Skip the TRANSACTIONS columns
+            for(int c = 0; c < 4; c++){
+                int size = in.readInt();
+                in.readFully(new byte[size]);
+            }
+
+            Object[][] rows = new Object[(int) in.readLong()][3];
+
+            long id = 0;
+            in.readInt();
+            for(Object[] r : rows){
+                id += readVarLong(in);
+                r[0] = id;
+            }
+            in.readInt();
+            for(Object[] r : rows){
+                r[1] = in.readUTF();
+            }
+            in.readInt();
+            for(Object[] r : rows){
+                int v = (int) readVarLong(in);
+                r[2] = v == NULL_INT ? null : v;
+            }
+
+            return rows;
+        }
+    }
+
+    /**
+     * @param state TABLE or ARCHIVE
+     * @return Periods in that state, oldest first
+     */
+    private List<Integer> periods(String state) throws SQLException {
+        List<Integer> periods = new ArrayList<Integer>();
+
+        try(PreparedStatement pstmt = conn.prepareStatement(
+            "SELECT PERIOD FROM TRANS_PERIOD WHERE STATE = ? ORDER BY PERIOD;")){
+            pstmt.setString(1, state);
+
+            try(ResultSet res = pstmt.executeQuery()){
+                while(res.next()) periods.add(res.getInt(1));
+            }
+        }
+
+        return periods;
+    }
+
+    /**
+     * @param customerID A customer
+     * @return True if an archived period holds transactions of the customer
+     */
+    public boolean hasArchive(int customerID) throws SQLException {
+        try(PreparedStatement pstmt = conn.prepareStatement(ARCHIVE_FILES_SQL)){
+            pstmt.setInt(1, customerID);
+            try(ResultSet res = pstmt.executeQuery()){
+                return res.next();
+            }
+        }
+    }
+
+    /**
+     * @return Pairs of transaction and line tables holding periods that are not
+     * archived, the current tables first
+     */
+    public List<String[]> liveTables() throws SQLException {
+        List<String[]> tables = new ArrayList<String[]>();
+        tables.add(new String[]{"TRANSACTIONS", "PROD_TRANSACTIONS"});
+
+        for(int period : periods(TABLE)){
+            tables.add(new String[]{"TRANSACTIONS_P" + period, "PROD_TRANSACTIONS_P" + period});
+        }
+
+        return tables;
+    }
+
+    /**
+     * @return Start of the month after the newest archived period, or the epoch
+     * if none is archived
+     */
+    public Timestamp archivedUntil() throws SQLException {
+        List<Integer> archived = periods(ARCHIVE);
+        if(archived.isEmpty()) return new Timestamp(0);
+
+        return start(next(archived.get(archived.size() - 1)));
+    }
+
+    /**
+     * Prints every period with its state and size.
+     */
+    public void list() throws SQLException {
+        createViews();
+
+        try(Statement stmt = conn.createStatement();
+            ResultSet res = stmt.executeQuery("SELECT PERIOD, STATE, ROWS, FILE FROM TRANS_PERIOD ORDER BY PERIOD;")){
+            while(res.next()){
+                System.out.printf("%d %-8s %10d %s\n", res.getInt(1), res.getString(2), res.getLong(3),
+                                  res.getString(4) == null ? "TRANSACTIONS_P" + res.getInt(1) : res.getString(4));
+            }
+        }
+    }
+
+    private static Timestamp start(int period){
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(period / 100, period % 100 - 1, 1);
+        return new Timestamp(cal.getTimeInMillis());
+    }
+
+    private static int next(int period){
+        return period % 100 == 12 ? (period / 100 + 1) * 100 + 1 : period + 1;
+    }
+
+    /**
+     * Usage: java database.TransactionPartitions [split | archive [keep] | list]
+     *
+     * split moves the closed months of ./database/db into period tables, archive
+     * moves all but the newest keep (default 3) period tables into files under
+     * ./database/archive, list prints the periods.
+     */
+    public static void main(String[] args){
+        String command = args.length > 0 ? args[0] : "list";
+
+        try(Connection conn = DriverManager.getConnection("jdbc:h2:./database/db;IFEXISTS=TRUE", "user", "password")){
+            TransactionPartitions partitions = new TransactionPartitions(conn, ARCHIVE_DIR);
+
+            switch(command){
+                case "split": {
+                    System.out.printf("Split %d months\n", partitions.split());
+                    break;
+                }
+                case "archive": {
+                    int keep = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+                    System.out.printf("Archived %d months\n", partitions.archive(keep));
+                    break;
+                }
+                case "list": {
+                    partitions.list();
+                    break;
+                }
+                default: {
+                    System.out.println("Usage: java database.TransactionPartitions [split | archive [keep] | list]");
+                    System.exit(1);
+                }
+            }
+        } catch(Exception e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
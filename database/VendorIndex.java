@@ -0,0 +1,108 @@
+package database;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory index from a product to the vendor that distributes its brand,
+ * resolved through the PRODUCT_CATALOG brand_id and BRAND_DIS. When a
+ * brand has several distributors the lowest vendor id is used.
+ *
+ * The index is loaded on first use and reloaded on the next lookup after the
+ * catalog change trigger marks it stale. The trigger fires before the change
+ * commits, so a reload can still miss it. A product missing from the index
+ * therefore reloads it once more, and a product that load lacks too is only
+ * looked for again by a reload RETRY_MS later.
+ */
+public class VendorIndex {
+
+    private static final String LOAD_SQL =
+        "SELECT PC.UPC14, MIN(BD.VENDOR_ID) FROM PRODUCT_CATALOG PC " +
+        "JOIN BRAND_DIS BD ON BD.BRAND_ID = PC.BRAND_ID " +
+        "GROUP BY PC.UPC14;";
+
+    /**
+     * Time before a product without a vendor reloads the index again, in ms.
+     */
+    static final long RETRY_MS = 1000;
+
+    private static volatile HashMap<Long, Integer> vendors;
+    private static volatile boolean stale = true;
+
+    // Products a reload was done for and still lacked, with the time of that reload
+    private static final ConcurrentHashMap<Long, Long> missing = new ConcurrentHashMap<Long, Long>();
+
+    private VendorIndex(){
+    }
+
+    /**
+     * Marks the index stale, it is reloaded by the next lookup.
+     */
+    public static void invalidate(){
+        stale = true;
+    }
+
+    /**
+     * Finds the vendor distributing a product.
+     *
+     * @param conn Connection used if the index has to be (re)loaded
+     * @param upc14 The product code
+     * @return The vendor id, or null if no vendor carries the product's brand
+     */
+    public static Integer vendorFor(Connection conn, String upc14) throws SQLException {
+        long key = ProductCache.pack(upc14);
+
+        HashMap<Long, Integer> index = current(conn, null);
+        Integer vendor = index.get(key);
+        if(vendor != null) return vendor;
+
+        Long missed = missing.get(key);
+        if(missed != null && System.currentTimeMillis() - missed < RETRY_MS) return null;
+
+        long reload = System.currentTimeMillis();
+        vendor = current(conn, index).get(key);
+        if(vendor == null) missing.put(key, reload);
+        else missing.remove(key);
+
+        return vendor;
+    }
+
+    /**
+     * @param conn Connection used if the index has to be (re)loaded
+     * @param replaced An index to reload if it is still the current one, or null
+     * @return The current index, reloaded if stale
+     */
+    private static HashMap<Long, Integer> current(Connection conn, HashMap<Long, Integer> replaced) throws SQLException {
+        HashMap<Long, Integer> index = vendors;
+        if(!stale && index != null && index != replaced) return index;
+
+        synchronized(VendorIndex.class){
+            if(stale || vendors == null || vendors == replaced){
+                // Cleared first so a change during the load marks it stale again
+                stale = false;
+                try{
+                    vendors = load(conn);
+                } catch(SQLException e){
+                    stale = true;
+                    throw e;
+                }
+            }
+
+            return vendors;
+        }
+    }
+
+    private static HashMap<Long, Integer> load(Connection conn) throws SQLException {
+        HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+
+        try(Statement stmt = conn.createStatement();
+            ResultSet res = stmt.executeQuery(LOAD_SQL)){
+            while(res.next()){
+                index.put(ProductCache.pack(res.getString(1)), res.getInt(2));
+            }
+        }
+
+        return index;
+    }
+}